@@ -0,0 +1,65 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class for actors run by the ActorEngine.
+ * Any thread may post to an actor's mailbox, but only one worker at a time
+ * processes it, so state inside an actor needs no locks. Posting a message
+ * happens-before it is received, which also makes anything handed over in
+ * the message visible to the receiver.
+ *
+ * An actor with mail is scheduled onto the engine's worker pool. After a
+ * batch of messages it gives the worker back, so one busy actor cannot
+ * starve the rest.
+ */
+public abstract class Actor implements Runnable {
+    private static final int BATCH = 64; // messages handled per turn on a worker
+
+    protected final ActorEngine engine;
+    private final Queue<Object> mailbox = new ConcurrentLinkedQueue<>(); // lock-free, many senders
+    private final AtomicBoolean scheduled = new AtomicBoolean(false); // true while queued or running
+
+    protected Actor(ActorEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Posts a message to this actor. Never blocks.
+     *
+     * @param message The message
+     */
+    public void send(Object message) {
+        mailbox.offer(message);
+        if (scheduled.compareAndSet(false, true)) {
+            engine.schedule(this);
+        }
+    }
+
+    @Override
+    public final void run() {
+        for (int i = 0; i < BATCH; i++) {
+            Object message = mailbox.poll();
+            if (message == null) {
+                break;
+            }
+            try {
+                receive(message);
+            } catch (RuntimeException e) {
+                engine.failed(this, e);
+            }
+        }
+        scheduled.set(false);
+        // Mail posted after the last poll would otherwise be stranded
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            engine.schedule(this);
+        }
+    }
+
+    /**
+     * Handles one message. Only ever called by one worker at a time.
+     *
+     * @param message The message
+     */
+    protected abstract void receive(Object message);
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event-loop engine: runs actors on a fixed pool of worker threads and
+ * delivers the passage of time as messages.
+ * Instead of every actor blocking in TimeManager.waitTicks on its own
+ * thread, an actor asks to be woken at a tick and the clock thread posts
+ * the wake-up message to its mailbox when that tick arrives.
+ */
+public class ActorEngine {
+    private final ForkJoinPool workers;
+    private final int workerCount;
+    private final int minTickTimeMs;
+    private final int maxTickTimeMs;
+    private final Thread clock;
+
+    // Written only by the clock thread, the tick under timerLock
+    @GuardedBy("timerLock")
+    private volatile long currentTick = 0;
+    private volatile boolean running = false;
+
+    // Stamping a new timer and moving new timers to the clock's queue take this
+    // lock, so a timer is never stamped with one tick and picked up a tick later
+    private final Object timerLock = new Object();
+    @GuardedBy("timerLock")
+    private final Queue<Timer> newTimers = new ArrayDeque<>(); // from any thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // clock thread only
+    private final AtomicLong timerSequence = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /** A message to post to an actor at a tick. Equal ticks fire in request order. */
+    private static final class Timer implements Comparable<Timer> {
+        final long tick;
+        final long sequence;
+        final Actor target;
+        final Object message;
+
+        Timer(long tick, long sequence, Actor target, Object message) {
+            this.tick = tick;
+            this.sequence = sequence;
+            this.target = target;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int byTick = Long.compare(tick, other.tick);
+            return byTick != 0 ? byTick : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Creates an engine with one worker per core.
+     *
+     * @param minTickTimeMs Shortest tick in milliseconds
+     * @param maxTickTimeMs Longest tick in milliseconds
+     */
+    public ActorEngine(int minTickTimeMs, int maxTickTimeMs) {
+        this(Runtime.getRuntime().availableProcessors(), minTickTimeMs, maxTickTimeMs);
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param workerCount   Number of worker threads
+     * @param minTickTimeMs Shortest tick in milliseconds
+     * @param maxTickTimeMs Longest tick in milliseconds
+     */
+    public ActorEngine(int workerCount, int minTickTimeMs, int maxTickTimeMs) {
+        this.workerCount = workerCount;
+        this.minTickTimeMs = minTickTimeMs;
+        this.maxTickTimeMs = Math.max(minTickTimeMs, maxTickTimeMs);
+        // asyncMode - actors are independent events, so run them first-in first-out
+        this.workers = new ForkJoinPool(workerCount, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.clock = new Thread(this::runClock, "ActorClock");
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Gets the number of messages that threw while being handled.
+     *
+     * @return Failure count
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Gets the current tick. Safe to call from any thread.
+     *
+     * @return Current tick
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Posts a message to an actor once the given number of ticks has passed.
+     * Zero ticks posts it straight away, like TimeManager.waitTicks(0).
+     *
+     * @param ticks   Ticks to wait
+     * @param target  Actor to wake
+     * @param message Message to post
+     */
+    public void wakeAfter(long ticks, Actor target, Object message) {
+        if (ticks <= 0) {
+            target.send(message);
+            return;
+        }
+        synchronized (timerLock) {
+            newTimers.offer(new Timer(currentTick + ticks, timerSequence.getAndIncrement(), target, message));
+        }
+    }
+
+    /**
+     * Starts the clock. Actors can be sent messages before or after.
+     */
+    public void start() {
+        running = true;
+        clock.start();
+    }
+
+    /**
+     * Stops the clock and the workers. Messages still queued are dropped.
+     * Once this returns, every message handled has completed, so actor
+     * state can be read directly.
+     *
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws IllegalStateException if a message is still being handled after 5 seconds
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        clock.interrupt();
+        clock.join();
+        workers.shutdownNow();
+        if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("actor workers still running 5s after stop, actor state is not settled");
+        }
+    }
+
+    /**
+     * Queues an actor with mail onto the worker pool.
+     */
+    void schedule(Actor actor) {
+        try {
+            workers.execute(actor);
+        } catch (RejectedExecutionException e) {
+            // Engine stopped - the message is dropped
+        }
+    }
+
+    /**
+     * Reports a message that threw. The actor carries on with its next message.
+     */
+    void failed(Actor actor, RuntimeException e) {
+        failures.incrementAndGet();
+        System.err.println("Actor " + actor + " failed handling a message: " + e);
+        e.printStackTrace();
+    }
+
+    private void runClock() {
+        while (running) {
+            try {
+                Thread.sleep(maxTickTimeMs == minTickTimeMs ? minTickTimeMs
+                        : ThreadLocalRandom.current().nextInt(minTickTimeMs, maxTickTimeMs + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // A timer requested during the tick just ended is stamped with it and
+            // picked up here, or stamped with the new tick and picked up next time
+            Timer timer;
+            long tick;
+            synchronized (timerLock) {
+                while ((timer = newTimers.poll()) != null) {
+                    timers.add(timer);
+                }
+                tick = currentTick + 1;
+                currentTick = tick; // published before the wake-ups so receivers see the new tick
+            }
+            while (!timers.isEmpty() && timers.peek().tick <= tick) {
+                timer = timers.poll();
+                timer.target.send(timer.message);
+            }
+        }
+    }
+}
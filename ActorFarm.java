@@ -0,0 +1,627 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The farm as actors, for the ActorEngine.
+ * The enclosure, every field, farmer, buyer and delivery producer is an
+ * actor. They only talk through their mailboxes, so none of their state
+ * is locked. Behaviour and timings mirror Farm, Field, Farmer (in RESERVE
+ * stocking mode), Buyer and AnimalDelivery, so the same scenario can be
+ * run on either engine and the results compared.
+ *
+ * Requests are reusable objects owned by the sender: the receiver fills
+ * in the answer and posts the same object back. An actor has at most one
+ * request of each kind outstanding, so nothing is allocated per request.
+ *
+ * Counters are volatile so they can be sampled while the farm runs. Each
+ * is written by one actor only, so samples of different actors are not a
+ * consistent snapshot until the engine has stopped.
+ */
+public class ActorFarm {
+    private static final Object START = "start";
+    private static final Object WAKE = "wake"; // a requested tick has arrived
+
+    private final ActorEngine engine;
+    private final FarmLayout layout;
+    private final AnimalTracker tracker;
+    private final EnclosureActor enclosure;
+    private final FieldActor[] fields;
+    private final List<Actor> starters = new ArrayList<>(); // sent START when the farm starts
+    private final List<FarmerActor> farmers = new ArrayList<>();
+    private final List<BuyerActor> buyers = new ArrayList<>();
+    private int nextBuyerId = 1;
+
+    // Planning buffers are large, so farmers share one planner per worker
+    // thread rather than keeping their own - a plan never spans two messages
+    private final ThreadLocal<RoutePlanner> planners;
+
+    // Messages
+
+    /** Delivery for the enclosure. */
+    private static final class Delivery {
+        final AnimalBatch animals;
+        final long tick;
+
+        Delivery(AnimalBatch animals, long tick) {
+            this.animals = animals;
+            this.tick = tick;
+        }
+    }
+
+    /** Farmer asks the enclosure for animals; answered once at least one is there. */
+    private static final class Collect {
+        final FarmerActor farmer;
+        final int[] animals = new int[Farmer.MAX_ANIMALS];
+        int count;
+
+        Collect(FarmerActor farmer) {
+            this.farmer = farmer;
+        }
+    }
+
+    /** Leftover animals a farmer brings back to the enclosure. */
+    private static final class Return {
+        final int[] animals;
+        final int count;
+
+        Return(int[] animals, int count) {
+            this.animals = animals;
+            this.count = count;
+        }
+    }
+
+    /** Farmer asks a field for space; answered straight away. */
+    private static final class Reserve {
+        final FarmerActor farmer;
+        int wanted;
+        int granted;
+
+        Reserve(FarmerActor farmer) {
+            this.farmer = farmer;
+        }
+    }
+
+    /** Animal placed into reserved space. */
+    private static final class Stock {
+        final int animal;
+
+        Stock(int animal) {
+            this.animal = animal;
+        }
+    }
+
+    /** Buyer asks its field for an animal; answered when one is handed over. */
+    private static final class Buy {
+        final BuyerActor buyer;
+        int animal;
+
+        Buy(BuyerActor buyer) {
+            this.buyer = buyer;
+        }
+    }
+
+    /**
+     * Creates the enclosure and a field for every animal type.
+     *
+     * @param engine  Engine the actors run on
+     * @param layout  Travel times between the enclosure and fields
+     * @param tracker Per-animal lifecycle store (may be disabled)
+     */
+    public ActorFarm(ActorEngine engine, FarmLayout layout, AnimalTracker tracker) {
+        this.engine = engine;
+        this.layout = layout;
+        this.tracker = tracker;
+        this.planners = ThreadLocal.withInitial(() -> new RoutePlanner(layout));
+        this.enclosure = new EnclosureActor();
+        AnimalType[] types = AnimalType.values();
+        this.fields = new FieldActor[types.length];
+        for (AnimalType type : types) {
+            fields[type.getId()] = new FieldActor(type);
+        }
+    }
+
+    public void addFarmer(int id) {
+        FarmerActor farmer = new FarmerActor(id);
+        farmers.add(farmer);
+        starters.add(farmer);
+    }
+
+    public void addBuyer(AnimalType type) {
+        BuyerActor buyer = new BuyerActor(nextBuyerId++, type);
+        buyers.add(buyer);
+        starters.add(buyer);
+    }
+
+    public void addProducer(DeliverySchedule schedule) {
+        starters.add(new ProducerActor(schedule));
+    }
+
+    /**
+     * Starts every farmer, buyer and producer. Start the engine's clock too.
+     */
+    public void start() {
+        for (Actor actor : starters) {
+            actor.send(START);
+        }
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public int getFieldAnimalCount(int typeId) {
+        return fields[typeId].count;
+    }
+
+    public int getFieldReservedSpace(int typeId) {
+        return fields[typeId].reservedSpace;
+    }
+
+    public long getFieldStockedCount(int typeId) {
+        return fields[typeId].stocked;
+    }
+
+    public long getFieldSoldCount(int typeId) {
+        return fields[typeId].sold;
+    }
+
+    public int getEnclosureSize() {
+        return enclosure.size;
+    }
+
+    public long getDeliveredCount() {
+        return enclosure.delivered;
+    }
+
+    public long getCollectedCount() {
+        return enclosure.collected;
+    }
+
+    public long getReturnedCount() {
+        return enclosure.returned;
+    }
+
+    /**
+     * Gets the number of animals sold from every field.
+     *
+     * @return Sold animal count
+     */
+    public long getSoldCount() {
+        long sold = 0;
+        for (FieldActor field : fields) {
+            sold += field.sold;
+        }
+        return sold;
+    }
+
+    public long getPurchaseCount() {
+        long purchases = 0;
+        for (BuyerActor buyer : buyers) {
+            purchases += buyer.purchases;
+        }
+        return purchases;
+    }
+
+    /**
+     * Gets the ticks buyers have spent waiting on their fields, summed over all purchases.
+     *
+     * @return Total waited ticks
+     */
+    public long getTotalWaitedTicks() {
+        long waited = 0;
+        for (BuyerActor buyer : buyers) {
+            waited += buyer.totalWaitedTicks;
+        }
+        return waited;
+    }
+
+    private static long threadId() {
+        return Thread.currentThread().threadId();
+    }
+
+    /**
+     * The enclosure. Farmers asking for animals are served oldest first.
+     */
+    private final class EnclosureActor extends Actor {
+        private final IntQueue animals = new IntQueue(64); // animal handles in arrival order
+        private final Deque<Collect> waiting = new ArrayDeque<>(); // farmers waiting for animals
+
+        volatile int size = 0;
+        volatile long delivered = 0;
+        volatile long collected = 0;
+        volatile long returned = 0;
+
+        EnclosureActor() {
+            super(ActorFarm.this.engine);
+        }
+
+        @Override
+        protected void receive(Object message) {
+            if (message instanceof Delivery delivery) {
+                Logger.logDelivery(delivery.tick, threadId(), delivery.animals);
+                for (int i = 0; i < delivery.animals.distinctTypes(); i++) {
+                    int typeId = delivery.animals.typeAt(i);
+                    for (int j = 0; j < delivery.animals.count(typeId); j++) {
+                        // Tracker ids are allocated here, serialised by this mailbox
+                        animals.add(tracker.delivered(typeId, delivery.tick));
+                    }
+                }
+                delivered += delivery.animals.total();
+            } else if (message instanceof Collect collect) {
+                waiting.addLast(collect);
+            } else if (message instanceof Return leftovers) {
+                for (int i = 0; i < leftovers.count; i++) {
+                    animals.add(leftovers.animals[i]);
+                }
+                returned += leftovers.count;
+            }
+            serveWaiting();
+            size = animals.size();
+        }
+
+        private void serveWaiting() {
+            while (!waiting.isEmpty() && !animals.isEmpty()) {
+                Collect collect = waiting.removeFirst();
+                int count = 0;
+                while (!animals.isEmpty() && count < collect.animals.length) {
+                    collect.animals[count++] = animals.remove();
+                }
+                collect.count = count;
+                collected += count;
+                collect.farmer.send(collect);
+            }
+        }
+    }
+
+    /**
+     * A field. Animals are handed straight to waiting buyers in arrival
+     * order, and stored animals plus reserved space never exceed capacity.
+     */
+    private final class FieldActor extends Actor {
+        private final AnimalType type;
+        private final int capacity;
+        private final IntQueue animals;
+        private final Deque<Buy> waiters = new ArrayDeque<>(); // buyers waiting, oldest first
+        private int reserved = 0;
+
+        volatile int count;
+        volatile int reservedSpace = 0;
+        volatile long stocked = 0;
+        volatile long sold = 0;
+
+        FieldActor(AnimalType type) {
+            super(ActorFarm.this.engine);
+            this.type = type;
+            this.capacity = type.getCapacity();
+            this.animals = new IntQueue(Math.min(capacity, 1024));
+            // Initial stock is never tracked individually
+            for (int i = 0; i < Math.min(type.getInitialStock(), capacity); i++) {
+                animals.add(AnimalTracker.untracked(type.getId()));
+            }
+            this.count = animals.size();
+        }
+
+        @Override
+        protected void receive(Object message) {
+            if (message instanceof Reserve reserve) {
+                reserve.granted = Math.max(0, Math.min(reserve.wanted, capacity - animals.size() - reserved));
+                reserved += reserve.granted;
+                reserve.farmer.send(reserve);
+            } else if (message instanceof Stock stock) {
+                reserved--;
+                stocked++;
+                if (!waiters.isEmpty()) {
+                    // Rendezvous - the oldest waiting buyer takes it directly
+                    sold++;
+                    Buy buy = waiters.removeFirst();
+                    buy.animal = stock.animal;
+                    buy.buyer.send(buy);
+                } else {
+                    animals.add(stock.animal);
+                }
+            } else if (message instanceof Buy buy) {
+                if (waiters.isEmpty() && !animals.isEmpty()) {
+                    sold++;
+                    buy.animal = animals.remove();
+                    buy.buyer.send(buy);
+                } else {
+                    waiters.addLast(buy);
+                }
+            }
+            count = animals.size();
+            reservedSpace = reserved;
+        }
+
+        @Override
+        public String toString() {
+            return "Field[" + type + "]";
+        }
+    }
+
+    /**
+     * A farmer, as a state machine driven by replies and wake-ups.
+     * Collect, plan, then for each field: reserve, travel, stock one animal
+     * per tick; then walk back and return what did not fit.
+     */
+    private final class FarmerActor extends Actor {
+        private static final int BREAK = 0;
+        private static final int COLLECTING = 1;
+        private static final int RESERVING = 2;
+        private static final int TRAVELLING = 3;
+        private static final int STOCKING = 4;
+        private static final int RETURNING = 5;
+        private static final int WAITING_FOR_SPACE = 6;
+
+        private final int id;
+        private final AnimalBatch collected = new AnimalBatch();
+        private final Collect collect = new Collect(this);
+        private final Reserve reserve = new Reserve(this);
+        private int phase;
+        private long lastBreakTick = 0;
+        private int ticksUntilNextBreak = nextBreakInterval();
+        private long waitStartTick;
+
+        // The current trip
+        private final int[] route = new int[Farmer.MAX_ANIMALS]; // field type ids in visiting order
+        private int routeIndex;
+        private int location;
+        private int remainingAnimals;
+        private int stockedCount;
+        private boolean travelled;
+
+        FarmerActor(int id) {
+            super(ActorFarm.this.engine);
+            this.id = id;
+        }
+
+        private int nextBreakInterval() {
+            return ThreadLocalRandom.current().nextInt(Farmer.MIN_TICKS_BEFORE_BREAK,
+                    Farmer.MAX_TICKS_BEFORE_BREAK + 1);
+        }
+
+        @Override
+        protected void receive(Object message) {
+            if (message == START) {
+                startCycle();
+            } else if (message == collect) {
+                onCollected(engine.getCurrentTick());
+            } else if (message == reserve) {
+                onReserved();
+            } else if (message == WAKE) {
+                switch (phase) {
+                    case BREAK:
+                        long tick = engine.getCurrentTick();
+                        Logger.logFarmerAction(tick, threadId(), id, "finished_break", null, 0);
+                        lastBreakTick = tick;
+                        ticksUntilNextBreak = nextBreakInterval();
+                        requestAnimals();
+                        break;
+                    case TRAVELLING:
+                        Logger.logFarmerAction(engine.getCurrentTick(), threadId(), id, "began_stocking_field",
+                                AnimalType.get(route[routeIndex]), reserve.granted);
+                        phase = STOCKING;
+                        stockNext();
+                        break;
+                    case STOCKING:
+                        stockNext();
+                        break;
+                    case RETURNING:
+                        Logger.logFarmerReturn(engine.getCurrentTick(), threadId(), id);
+                        startCycle();
+                        break;
+                    default: // WAITING_FOR_SPACE
+                        startCycle();
+                        break;
+                }
+            }
+        }
+
+        private void startCycle() {
+            long tick = engine.getCurrentTick();
+            // Breaks prevent monopolisation of resources, as in Farmer
+            if (tick - lastBreakTick >= ticksUntilNextBreak) {
+                Logger.logFarmerAction(tick, threadId(), id, "started_break", null, 0);
+                phase = BREAK;
+                engine.wakeAfter(Farmer.BREAK_DURATION, this, WAKE);
+                return;
+            }
+            requestAnimals();
+        }
+
+        private void requestAnimals() {
+            phase = COLLECTING;
+            waitStartTick = engine.getCurrentTick();
+            enclosure.send(collect);
+        }
+
+        private void onCollected(long tick) {
+            collected.clear();
+            for (int i = 0; i < collect.count; i++) {
+                int animal = collect.animals[i];
+                collected.add(tracker.typeOf(animal), 1);
+                tracker.collected(animal, tick, id);
+            }
+            Logger.logFarmerCollection(tick, threadId(), id, tick - waitStartTick, collected);
+
+            System.arraycopy(planners.get().plan(collected), 0, route, 0, collected.distinctTypes());
+            routeIndex = 0;
+            location = FarmLayout.ENCLOSURE;
+            remainingAnimals = collected.total();
+            travelled = false;
+            nextField();
+        }
+
+        private void nextField() {
+            if (routeIndex == collected.distinctTypes()) {
+                goHome();
+                return;
+            }
+            phase = RESERVING;
+            reserve.wanted = collected.count(route[routeIndex]);
+            fields[route[routeIndex]].send(reserve);
+        }
+
+        private void onReserved() {
+            if (reserve.granted == 0) {
+                routeIndex++; // a full field is not worth the walk
+                nextField();
+                return;
+            }
+            int typeId = route[routeIndex];
+            phase = TRAVELLING;
+            stockedCount = 0;
+            travelled = true;
+            engine.wakeAfter(layout.travelTime(location, FarmLayout.fieldNode(typeId)) + remainingAnimals, this, WAKE);
+        }
+
+        private void stockNext() {
+            int typeId = route[routeIndex];
+            if (stockedCount < reserve.granted) {
+                for (int j = 0; j < collect.count; j++) {
+                    int animal = collect.animals[j];
+                    if (animal != Farmer.STOCKED && tracker.typeOf(animal) == typeId) {
+                        tracker.stocked(animal, engine.getCurrentTick());
+                        fields[typeId].send(new Stock(animal));
+                        collect.animals[j] = Farmer.STOCKED;
+                        stockedCount++;
+                        engine.wakeAfter(Farmer.STOCKING_TIME_PER_ANIMAL, this, WAKE);
+                        return;
+                    }
+                }
+            }
+            Logger.logFarmerAction(engine.getCurrentTick(), threadId(), id, "finished_stocking_field",
+                    AnimalType.get(typeId), stockedCount);
+            remainingAnimals -= stockedCount;
+            location = FarmLayout.fieldNode(typeId);
+            routeIndex++;
+            nextField();
+        }
+
+        private void goHome() {
+            // Animals that did not fit go back so they are not lost
+            int leftovers = 0;
+            int[] returning = null;
+            for (int j = 0; j < collect.count; j++) {
+                if (collect.animals[j] != Farmer.STOCKED) {
+                    if (returning == null) {
+                        returning = new int[collect.count - j];
+                    }
+                    returning[leftovers++] = collect.animals[j];
+                }
+            }
+            collect.count = 0;
+
+            int returnTime = travelled ? layout.travelTime(location, FarmLayout.ENCLOSURE) + remainingAnimals : 0;
+            if (leftovers > 0) {
+                // Posted now, so delayed by returnTime to arrive when the farmer does
+                engine.wakeAfter(returnTime, enclosure, new Return(returning, leftovers));
+            }
+            if (travelled) {
+                phase = RETURNING;
+                engine.wakeAfter(returnTime, this, WAKE);
+            } else {
+                // Every field was full - back off rather than collect the same animals straight away
+                phase = WAITING_FOR_SPACE;
+                engine.wakeAfter(Farmer.FULL_FIELDS_RETRY_TICKS, this, WAKE);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Farmer-" + id;
+        }
+    }
+
+    /**
+     * A buyer: browse for a random time, ask the field, collect, repeat.
+     */
+    private final class BuyerActor extends Actor {
+        private static final int BROWSING = 0;
+        private static final int COLLECTING = 1;
+
+        private final int id;
+        private final AnimalType type;
+        private final Buy buy = new Buy(this);
+        private int phase;
+        private long startWaitTick;
+        private long waitedTicks;
+
+        volatile long purchases = 0;
+        volatile long totalWaitedTicks = 0;
+
+        BuyerActor(int id, AnimalType type) {
+            super(ActorFarm.this.engine);
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        protected void receive(Object message) {
+            if (message == START) {
+                browse();
+            } else if (message == buy) {
+                long purchaseTick = engine.getCurrentTick();
+                waitedTicks = purchaseTick - startWaitTick;
+                tracker.sold(buy.animal, purchaseTick, id);
+                purchases++;
+                totalWaitedTicks += waitedTicks;
+                phase = COLLECTING;
+                engine.wakeAfter(Buyer.COLLECTION_TIME, this, WAKE);
+            } else if (message == WAKE) {
+                if (phase == BROWSING) {
+                    startWaitTick = engine.getCurrentTick();
+                    fields[type.getId()].send(buy);
+                } else {
+                    Logger.logBuyerCollection(engine.getCurrentTick(), threadId(), id, type, waitedTicks);
+                    browse();
+                }
+            }
+        }
+
+        private void browse() {
+            phase = BROWSING;
+            long waitTime = Math.round(2.0 * ThreadLocalRandom.current().nextDouble() * Buyer.BUY_INTERVAL_TICKS_AVG);
+            engine.wakeAfter(waitTime, this, WAKE);
+        }
+
+        @Override
+        public String toString() {
+            return "Buyer-" + type + "-" + id;
+        }
+    }
+
+    /**
+     * A delivery producer following its own schedule.
+     */
+    private final class ProducerActor extends Actor {
+        private final DeliverySchedule schedule;
+        private AnimalBatch next; // handed to the enclosure, so a fresh one per delivery
+        private long nextTick;
+
+        ProducerActor(DeliverySchedule schedule) {
+            super(ActorFarm.this.engine);
+            this.schedule = schedule;
+        }
+
+        @Override
+        protected void receive(Object message) {
+            if (message == START) {
+                plan(engine.getCurrentTick());
+            } else if (message == WAKE) {
+                enclosure.send(new Delivery(next, engine.getCurrentTick()));
+                plan(nextTick);
+            }
+        }
+
+        private void plan(long previousTick) {
+            next = new AnimalBatch();
+            nextTick = schedule.next(previousTick, next);
+            if (nextTick >= 0) { // -1 means the schedule has ended
+                engine.wakeAfter(nextTick - engine.getCurrentTick(), this, WAKE);
+            }
+        }
+    }
+}
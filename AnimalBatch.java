@@ -0,0 +1,87 @@
+/**
+ * A reusable count of animals per type.
+ * Counts are kept in a primitive array indexed by type id, and the ids that
+ * are non-zero are tracked separately so that clearing and iterating cost
+ * O(distinct types in the batch) rather than O(catalogue size).
+ * Not thread-safe - each batch is owned by a single thread.
+ */
+public class AnimalBatch {
+    private final int[] counts; // indexed by type id
+    private final int[] types; // distinct type ids in order of first add
+    private int distinct = 0;
+    private int total = 0;
+
+    /**
+     * Creates an empty batch sized for the current catalogue.
+     */
+    public AnimalBatch() {
+        this.counts = new int[AnimalType.count()];
+        this.types = new int[AnimalType.count()];
+    }
+
+    /**
+     * Adds animals of a type to the batch.
+     *
+     * @param typeId dense type id
+     * @param count  number of animals to add
+     */
+    public void add(int typeId, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (counts[typeId] == 0) {
+            types[distinct++] = typeId;
+        }
+        counts[typeId] += count;
+        total += count;
+    }
+
+    /**
+     * Empties the batch. Only the entries that were used are reset.
+     */
+    public void clear() {
+        for (int i = 0; i < distinct; i++) {
+            counts[types[i]] = 0;
+        }
+        distinct = 0;
+        total = 0;
+    }
+
+    /**
+     * Gets the number of distinct types in the batch.
+     *
+     * @return number of types with a non-zero count
+     */
+    public int distinctTypes() {
+        return distinct;
+    }
+
+    /**
+     * Gets the type id at a position in the batch.
+     *
+     * @param index position, 0 to distinctTypes() - 1
+     * @return the type id
+     */
+    public int typeAt(int index) {
+        return types[index];
+    }
+
+    /**
+     * Gets the count for a type.
+     *
+     * @param typeId dense type id
+     * @return number of animals of that type
+     */
+    public int count(int typeId) {
+        return counts[typeId];
+    }
+
+    /**
+     * Gets the total number of animals in the batch.
+     *
+     * @return total count
+     */
+    public int total() {
+        return total;
+    }
+}
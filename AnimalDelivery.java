@@ -1,77 +1,90 @@
-import java.util.*;
+import java.util.Random;
 
 /**
- * this is responsible for periodically delivering animals to the farm enclosure.
+ * this is responsible for delivering animals to the farm enclosure.
  * producer role in producer-consumer pattern.
+ * When and what is delivered comes from a DeliverySchedule; between
+ * deliveries the thread blocks on the clock instead of polling it.
+ * Several deliveries can run at once, each with its own schedule.
  */
 public class AnimalDelivery implements Runnable {
-    private static final int DELIVERY_INTERVAL_TICKS = 100;
-    private static final int ANIMALS_PER_DELIVERY = 10;
-    
     private final Farm farm; // Shared resource across threads
     private final TimeManager timeManager; // Shared clock
-    private final Random random = new Random();
-    @GuardedBy("this") 
-    private long lastDeliveryTick = 0;
-    
+    private final DeliverySchedule schedule; // owned by this producer
+    private final AnimalBatch delivery = new AnimalBatch(); // reused for every delivery
+
+    // Time spent handing deliveries to the enclosure, including waiting for its lock.
+    // Written only by this producer's thread
+    private volatile long deliveries = 0;
+    private volatile long enclosureNanos = 0;
+    private volatile long maxEnclosureNanos = 0;
+
     /**
-     * Constructor for animal delivery service.
-     * 
+     * Constructor for animal delivery service with the original schedule,
+     * 10 animals every 100 ticks.
+     *
      * @param farm The farm to deliver animals to (shared resource)
      * @param timeManager The shared time manager
      */
     public AnimalDelivery(Farm farm, TimeManager timeManager) {
+        this(farm, timeManager, new FixedIntervalSchedule(DeliverySchedule.DEFAULT_INTERVAL_TICKS,
+                DeliverySchedule.DEFAULT_ANIMALS_PER_DELIVERY, new Random()));
+    }
+
+    /**
+     * Constructor for animal delivery service.
+     *
+     * @param farm The farm to deliver animals to (shared resource)
+     * @param timeManager The shared time manager
+     * @param schedule When deliveries arrive - not shared with other producers
+     */
+    public AnimalDelivery(Farm farm, TimeManager timeManager, DeliverySchedule schedule) {
         this.farm = farm;
         this.timeManager = timeManager;
+        this.schedule = schedule;
     }
-    
+
+    public long getDeliveryCount() {
+        return deliveries;
+    }
+
+    /**
+     * Gets the total time spent adding deliveries to the enclosure.
+     * 
+     * @return Nanoseconds, including time blocked on the enclosure lock
+     */
+    public long getEnclosureNanos() {
+        return enclosureNanos;
+    }
+
+    public long getMaxEnclosureNanos() {
+        return maxEnclosureNanos;
+    }
+
     @Override
     public void run() {
         try {
+            long previousTick = timeManager.getCurrentTick();
             while (!Thread.currentThread().isInterrupted()) {
-                long currentTick = timeManager.getCurrentTick();
-                
-                // Check if its time for a delivery (every 100 ticks)
-                // This is a non-blocking check to prevent busy waiting
-                if (currentTick - lastDeliveryTick >= DELIVERY_INTERVAL_TICKS) {
-                    deliverAnimals();
-                    lastDeliveryTick = currentTick;
+                long nextTick = schedule.next(previousTick, delivery);
+                if (nextTick < 0) {
+                    return; // schedule has ended, e.g. the end of a trace
                 }
-                
-                Thread.sleep(10);
+
+                // Block until the delivery is due - woken by the clock, no polling
+                timeManager.waitUntil(nextTick);
+
+                // Add animals to enclosure - this call is thread-safe due to synchronization in Farm
+                long start = System.nanoTime();
+                farm.addAnimalsToEnclosure(delivery, timeManager.getCurrentTick());
+                long elapsed = System.nanoTime() - start;
+                enclosureNanos += elapsed;
+                maxEnclosureNanos = Math.max(maxEnclosureNanos, elapsed);
+                deliveries++;
+                previousTick = nextTick;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
     }
-    
-    /**
-     * Delivers animals to the enclosure.
-     * Synchronize keyword used to safely modify shared state.
-     */
-    private void deliverAnimals() {
-        // Generate a random distribution of animals (total: ANIMALS_PER_DELIVERY)
-        Map<AnimalType, Integer> animalCounts = generateRandomAnimalCounts();
-        
-        // Add animals to enclosure - this call is thread-safe due to synchronization in Farm
-        farm.addAnimalsToEnclosure(animalCounts, timeManager.getCurrentTick());
-    }
-    
-    private Map<AnimalType, Integer> generateRandomAnimalCounts() {
-        Map<AnimalType, Integer> counts = new HashMap<>();
-        AnimalType[] types = AnimalType.values();
-        
-        // Initialise all counts to 0
-        for (AnimalType type : types) {
-            counts.put(type, 0);
-        }
-        
-        // Randomly assign animals
-        for (int i = 0; i < ANIMALS_PER_DELIVERY; i++) {
-            AnimalType type = types[random.nextInt(types.length)];
-            counts.put(type, counts.get(type) + 1);
-        }
-        
-        return counts;
-    }
 }
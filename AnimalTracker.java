@@ -0,0 +1,307 @@
+import java.io.PrintStream;
+
+/**
+ * Optional per-animal lifecycle tracking in a column-oriented store.
+ * Every tracked animal is an int id; its delivery tick, stage offsets, type,
+ * farmer and buyer live in primitive arrays (16 bytes per animal) split
+ * into fixed-size chunks, so no per-animal objects are created and the
+ * store grows without copying.
+ *
+ * Animals that are not tracked (tracking off, or initial field stock) are
+ * represented by a negative handle that encodes only their type.
+ * The type column is 16 bits wide, so tracking refuses catalogues of more
+ * than MAX_TYPES types rather than routing animals to the wrong field.
+ *
+ * A record is only written by the thread currently holding the animal.
+ * Animals change hands through the enclosure and field monitors, which
+ * makes each write visible to the next holder.
+ */
+public class AnimalTracker {
+    /** Stages of an animal's life that can be queried. */
+    public enum Stage {
+        ENCLOSURE, // delivered -> collected
+        TRANSPORT, // collected -> stocked
+        FIELD, // stocked -> sold
+        END_TO_END // delivered -> sold
+    }
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+    private static final char NONE = 0xFFFF; // stage not reached yet
+    private static final char SATURATED = 0xFFFE; // offsets are capped here
+    static final int MAX_TYPES = 0xFFFF; // most types the char type column can tell apart
+
+    /** One block of CHUNK_SIZE animals, one array per column. */
+    private static class Chunk {
+        final int[] delivered = new int[CHUNK_SIZE]; // absolute tick
+        final char[] collected = new char[CHUNK_SIZE]; // ticks after delivery
+        final char[] stocked = new char[CHUNK_SIZE]; // ticks after collection
+        final char[] sold = new char[CHUNK_SIZE]; // ticks after stocking
+        final char[] type = new char[CHUNK_SIZE];
+        final char[] farmer = new char[CHUNK_SIZE];
+        final char[] buyer = new char[CHUNK_SIZE];
+    }
+
+    private final boolean enabled;
+    private final Chunk[] chunks;
+
+    // Ids are only handed out under the farm monitor; volatile so reports
+    // from other threads see every chunk up to size
+    private volatile int size = 0;
+
+    /**
+     * Creates a tracker for the loaded catalogue.
+     *
+     * @param enabled False to hand out untracked handles only
+     * @throws IllegalArgumentException if enabled and the catalogue has more than MAX_TYPES types
+     */
+    public AnimalTracker(boolean enabled) {
+        if (enabled && AnimalType.count() > MAX_TYPES) {
+            throw new IllegalArgumentException("cannot track " + AnimalType.count() + " animal types, at most "
+                    + MAX_TYPES + " fit a record");
+        }
+        this.enabled = enabled;
+        this.chunks = enabled ? new Chunk[MAX_CHUNKS] : new Chunk[0];
+    }
+
+    /**
+     * Gets the handle of an animal that is not tracked.
+     *
+     * @param typeId dense type id
+     * @return negative handle encoding the type
+     */
+    public static int untracked(int typeId) {
+        return -typeId - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the type of an animal.
+     *
+     * @param animal animal handle
+     * @return dense type id
+     */
+    public int typeOf(int animal) {
+        if (animal < 0) {
+            return -animal - 1;
+        }
+        return chunks[animal >>> CHUNK_BITS].type[animal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Registers a delivered animal.
+     * Must be called under the farm monitor, which serialises id allocation.
+     *
+     * @param typeId dense type id
+     * @param tick   delivery tick
+     * @return handle for the new animal
+     * @throws IllegalArgumentException if typeId does not fit the type column
+     */
+    public int delivered(int typeId, long tick) {
+        if (!enabled || size == Integer.MAX_VALUE) {
+            return untracked(typeId);
+        }
+        if (typeId < 0 || typeId >= MAX_TYPES) {
+            throw new IllegalArgumentException("type id " + typeId + " does not fit a tracking record");
+        }
+        int id = size;
+        int slot = id & (CHUNK_SIZE - 1);
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        if (chunk == null) {
+            chunk = new Chunk();
+            chunks[id >>> CHUNK_BITS] = chunk;
+        }
+        chunk.delivered[slot] = (int) tick;
+        chunk.collected[slot] = NONE;
+        chunk.stocked[slot] = NONE;
+        chunk.sold[slot] = NONE;
+        chunk.type[slot] = (char) typeId;
+        chunk.farmer[slot] = 0;
+        chunk.buyer[slot] = 0;
+        size = id + 1; // publish after the record is complete
+        return id;
+    }
+
+    /**
+     * Records that a farmer collected the animal from the enclosure.
+     * A re-collection after a return overwrites the earlier one.
+     */
+    public void collected(int animal, long tick, int farmerId) {
+        if (animal < 0) {
+            return;
+        }
+        Chunk chunk = chunks[animal >>> CHUNK_BITS];
+        int slot = animal & (CHUNK_SIZE - 1);
+        chunk.collected[slot] = offset(tick, chunk.delivered[slot]);
+        chunk.stocked[slot] = NONE;
+        chunk.farmer[slot] = (char) Math.min(farmerId, SATURATED);
+    }
+
+    /**
+     * Records that the animal is being put into its field.
+     * Called before the hand-over so the buyer sees it; undo with stockFailed.
+     */
+    public void stocked(int animal, long tick) {
+        if (animal < 0) {
+            return;
+        }
+        Chunk chunk = chunks[animal >>> CHUNK_BITS];
+        int slot = animal & (CHUNK_SIZE - 1);
+        chunk.stocked[slot] = offset(tick, chunk.delivered[slot] + chunk.collected[slot]);
+    }
+
+    /**
+     * Clears the stocking record of an animal the field had no room for.
+     */
+    public void stockFailed(int animal) {
+        if (animal < 0) {
+            return;
+        }
+        chunks[animal >>> CHUNK_BITS].stocked[animal & (CHUNK_SIZE - 1)] = NONE;
+    }
+
+    /**
+     * Records that a buyer bought the animal.
+     */
+    public void sold(int animal, long tick, int buyerId) {
+        if (animal < 0) {
+            return;
+        }
+        Chunk chunk = chunks[animal >>> CHUNK_BITS];
+        int slot = animal & (CHUNK_SIZE - 1);
+        if (chunk.stocked[slot] == NONE) {
+            return;
+        }
+        long stockedTick = chunk.delivered[slot] + chunk.collected[slot] + chunk.stocked[slot];
+        chunk.sold[slot] = offset(tick, stockedTick);
+        chunk.buyer[slot] = (char) Math.min(buyerId, SATURATED);
+    }
+
+    /**
+     * Gets the number of tracked animals.
+     *
+     * @return animals registered so far
+     */
+    public int count() {
+        return size;
+    }
+
+    /**
+     * Gets how long an animal spent in a stage.
+     *
+     * @param animal animal id
+     * @param stage  the stage
+     * @return duration in ticks, or -1 if the stage has not been completed
+     */
+    public long dwell(int animal, Stage stage) {
+        if (animal < 0 || animal >= size) {
+            return -1;
+        }
+        Chunk chunk = chunks[animal >>> CHUNK_BITS];
+        int slot = animal & (CHUNK_SIZE - 1);
+        char collected = chunk.collected[slot];
+        char stocked = chunk.stocked[slot];
+        char sold = chunk.sold[slot];
+        switch (stage) {
+            case ENCLOSURE:
+                return collected == NONE ? -1 : collected;
+            case TRANSPORT:
+                return collected == NONE || stocked == NONE ? -1 : stocked;
+            case FIELD:
+                return stocked == NONE || sold == NONE ? -1 : sold;
+            default:
+                return collected == NONE || stocked == NONE || sold == NONE ? -1
+                        : (long) collected + stocked + sold;
+        }
+    }
+
+    /**
+     * Gets the farmer that last collected an animal.
+     *
+     * @return farmer id, 0 if not collected
+     */
+    public int farmerOf(int animal) {
+        return chunks[animal >>> CHUNK_BITS].farmer[animal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Gets the buyer that bought an animal.
+     *
+     * @return buyer id, 0 if not sold
+     */
+    public int buyerOf(int animal) {
+        return chunks[animal >>> CHUNK_BITS].buyer[animal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Builds a histogram of stage durations.
+     *
+     * @param stage  the stage
+     * @param typeId dense type id, or -1 for all types
+     * @return histogram of animals that completed the stage
+     */
+    public TickHistogram histogram(Stage stage, int typeId) {
+        TickHistogram histogram = new TickHistogram();
+        int n = size;
+        for (int animal = 0; animal < n; animal++) {
+            if (typeId >= 0 && typeOf(animal) != typeId) {
+                continue;
+            }
+            histogram.record(dwell(animal, stage));
+        }
+        return histogram;
+    }
+
+    /**
+     * Prints dwell time per stage, and end-to-end latency per type.
+     * Safe to call while the simulation runs, but records that are being
+     * written at that moment may be counted in an earlier stage.
+     *
+     * @param out where to print
+     */
+    public void printReport(PrintStream out) {
+        if (!enabled) {
+            return;
+        }
+        int n = size;
+        int typeCount = AnimalType.count();
+        TickHistogram[] stages = new TickHistogram[Stage.values().length];
+        TickHistogram[] perType = new TickHistogram[typeCount];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new TickHistogram();
+        }
+        for (int i = 0; i < typeCount; i++) {
+            perType[i] = new TickHistogram();
+        }
+
+        // Single pass over the columns
+        for (int animal = 0; animal < n; animal++) {
+            for (Stage stage : Stage.values()) {
+                stages[stage.ordinal()].record(dwell(animal, stage));
+            }
+            perType[typeOf(animal)].record(dwell(animal, Stage.END_TO_END));
+        }
+
+        out.println("Animal lifecycle report: " + n + " animals tracked");
+        for (Stage stage : Stage.values()) {
+            out.println("- " + stage.name().toLowerCase() + " ticks: " + stages[stage.ordinal()].summary());
+        }
+        for (int i = 0; i < typeCount; i++) {
+            if (perType[i].count() > 0) {
+                out.println("- " + AnimalType.get(i) + " end_to_end ticks: " + perType[i].summary());
+            }
+        }
+    }
+
+    private static char offset(long tick, long from) {
+        long delta = tick - from;
+        if (delta < 0) {
+            return 0;
+        }
+        return (char) Math.min(delta, SATURATED);
+    }
+}
@@ -1,12 +1,178 @@
-public enum AnimalType {
-    PIG,
-    COW,
-    SHEEP,
-    LLAMA,
-    CHICKEN;
-    
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A category of livestock loaded from the animal catalogue.
+ * Each type gets a dense integer id (0..count-1) so that per-type state
+ * can live in primitive arrays indexed by id instead of maps.
+ * Instances are immutable, so they can be shared between threads freely.
+ */
+public final class AnimalType {
+    // Replaced once at startup before any simulation thread is started.
+    // Volatile so that every thread sees the fully built catalogue.
+    private static volatile AnimalType[] catalogue = new AnimalType[0];
+
+    private final int id;
+    private final String name;
+    private final int capacity;
+    private final int initialStock;
+    private final int buyerCount;
+    private final String label; // plural name used in log lines
+
+    private AnimalType(int id, String name, int capacity, int initialStock, int buyerCount) {
+        this.id = id;
+        this.name = name;
+        this.capacity = capacity;
+        this.initialStock = initialStock;
+        this.buyerCount = buyerCount;
+        this.label = name + "s";
+    }
+
+    /**
+     * Installs the original five animal types.
+     * Used when no catalogue file is given.
+     *
+     * @param fieldCapacity max capacity of each field
+     */
+    public static void loadDefaultCatalogue(int fieldCapacity) {
+        String[] names = { "pig", "cow", "sheep", "llama", "chicken" };
+        AnimalType[] types = new AnimalType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            types[i] = new AnimalType(i, names[i], fieldCapacity, FarmSimulation.INITIAL_ANIMALS_PER_FIELD, 1);
+        }
+        catalogue = types;
+    }
+
+    /**
+     * Loads the animal catalogue from a file and installs it.
+     * One type per line: name [capacity] [initialStock] [buyers].
+     * Missing columns fall back to the defaults, blank lines and lines
+     * starting with '#' are ignored. Ids are assigned in file order.
+     * Must be called before any simulation thread is started.
+     *
+     * @param filename        path of the catalogue file
+     * @param defaultCapacity capacity used when a line has no capacity column
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed
+     */
+    public static void loadCatalogue(String filename, int defaultCapacity) throws IOException {
+        try (Reader reader = new FileReader(filename)) {
+            loadCatalogue(reader, filename, defaultCapacity);
+        }
+    }
+
+    /**
+     * Loads the animal catalogue from a reader and installs it.
+     * Same format as the catalogue file, used for generated catalogues.
+     *
+     * @param source          catalogue text
+     * @param sourceName      name used in error messages
+     * @param defaultCapacity capacity used when a line has no capacity column
+     * @throws IOException              if the source cannot be read
+     * @throws IllegalArgumentException if a line is malformed
+     */
+    public static void loadCatalogue(Reader source, String sourceName, int defaultCapacity) throws IOException {
+        List<AnimalType> types = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+
+        try (BufferedReader reader = new BufferedReader(source)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                if (parts.length > 4) {
+                    throw new IllegalArgumentException(sourceName + ":" + lineNumber + ": too many columns");
+                }
+
+                String name = parts[0].toLowerCase();
+                if (!names.add(name)) {
+                    throw new IllegalArgumentException(sourceName + ":" + lineNumber + ": duplicate type " + name);
+                }
+
+                try {
+                    int capacity = parts.length > 1 ? Integer.parseInt(parts[1]) : defaultCapacity;
+                    int initialStock = parts.length > 2 ? Integer.parseInt(parts[2])
+                            : FarmSimulation.INITIAL_ANIMALS_PER_FIELD;
+                    int buyers = parts.length > 3 ? Integer.parseInt(parts[3]) : 1;
+                    if (capacity < 0 || initialStock < 0 || buyers < 0) {
+                        throw new IllegalArgumentException(sourceName + ":" + lineNumber + ": negative value");
+                    }
+                    types.add(new AnimalType(types.size(), name, capacity, Math.min(initialStock, capacity), buyers));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(sourceName + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException(sourceName + ": no animal types defined");
+        }
+        catalogue = types.toArray(new AnimalType[0]);
+    }
+
+    /**
+     * Gets all animal types in id order.
+     * The returned array is shared and must not be modified.
+     *
+     * @return the animal types, indexed by id
+     */
+    public static AnimalType[] values() {
+        return catalogue;
+    }
+
+    /**
+     * Gets the animal type with the given id.
+     *
+     * @param id dense type id
+     * @return the animal type
+     */
+    public static AnimalType get(int id) {
+        return catalogue[id];
+    }
+
+    /**
+     * Gets the number of animal types in the catalogue.
+     *
+     * @return number of types
+     */
+    public static int count() {
+        return catalogue.length;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getInitialStock() {
+        return initialStock;
+    }
+
+    public int getBuyerCount() {
+        return buyerCount;
+    }
+
     @Override
     public String toString() {
-        return name().toLowerCase() + "s";
+        return label;
     }
 }
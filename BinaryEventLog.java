@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * Compact binary sink for simulation events.
+ * Each event is one or more fixed-width 16 byte records, buffered into
+ * 64 KB blocks and written through a FileChannel. Blocks can optionally be
+ * deflate-compressed, and the log rotates to a new segment file once the
+ * current one reaches a size limit.
+ *
+ * Segment file: header, then blocks.
+ *   header = "FARMLOG1", int flags, int typeCount, typeCount x (short length, UTF-8 name)
+ *   block  = int rawLength, int storedLength, storedLength bytes
+ *            (deflated when the file is compressed and storedLength < rawLength)
+ *   record = int tick, int waitedTicks, char thread, char actor, char type, char count,
+ *            byte kind, byte flags
+ * Multi-type events (deliveries, collections) write one record per type;
+ * the first record of each event has FIRST set.
+ * Thread, actor and type ids must fit below NO_TYPE - larger ones are
+ * rejected rather than saturated, which would merge them together and
+ * make a type look like NO_TYPE. Counts saturate at MAX_FIELD.
+ *
+ * Not thread-safe on its own - Logger serialises all writes under its lock.
+ */
+public class BinaryEventLog implements Closeable {
+    static final byte[] MAGIC = "FARMLOG1".getBytes(StandardCharsets.US_ASCII);
+    static final int RECORD_SIZE = 16;
+    static final int BLOCK_SIZE = RECORD_SIZE * 4096;
+    static final int FILE_COMPRESSED = 1; // header flag
+    static final int FIRST = 1; // record flag
+    static final int NO_TYPE = 0xFFFF;
+    static final int MAX_FIELD = 0xFFFF; // largest value of a char field, counts saturate here
+
+    /** Event kinds, named after the action in the text log. */
+    public enum Kind {
+        DELIVERY("animal_delivery"),
+        FARMER_COLLECTION("collected_animals"),
+        BUYER_COLLECTION("collected_from_field"),
+        BREAK_STARTED("started_break"),
+        BREAK_FINISHED("finished_break"),
+        STOCKING_BEGAN("began_stocking_field"),
+        STOCKING_FINISHED("finished_stocking_field"),
+        FARMER_RETURN("returned_to_enclosure"),
+        FARMER_JOINED("joined_pool"), // count is the pool size after the change
+        FARMER_RETIRED("left_pool");
+
+        private final String action;
+
+        Kind(String action) {
+            this.action = action;
+        }
+
+        public String action() {
+            return action;
+        }
+
+        /**
+         * Finds the kind for a text log action name.
+         *
+         * @param action action name, e.g. "began_stocking_field"
+         * @return the kind
+         * @throws IllegalArgumentException if no kind has that name
+         */
+        public static Kind forName(String action) {
+            for (Kind kind : values()) {
+                if (kind.action.equals(action)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event kind: " + action);
+        }
+    }
+
+    private final String prefix;
+    private final long maxSegmentBytes;
+    private final boolean compress;
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private final Deflater deflater;
+    private final byte[] compressed;
+
+    private FileChannel channel;
+    private int segment = 0;
+    private long segmentBytes = 0;
+
+    /**
+     * Opens the first segment, prefix-00000.flog.
+     *
+     * @param prefix          path prefix of the segment files
+     * @param maxSegmentBytes segment size at which the log rotates
+     * @param compress        true to deflate each block
+     * @throws IOException if the segment cannot be created
+     */
+    public BinaryEventLog(String prefix, long maxSegmentBytes, boolean compress) throws IOException {
+        this.prefix = prefix;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compress = compress;
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.compressed = compress ? new byte[BLOCK_SIZE + BLOCK_SIZE / 8 + 64] : null;
+        openSegment();
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param tick        simulation tick
+     * @param threadId    thread that logged the event
+     * @param kind        event kind
+     * @param first       true for the first record of an event
+     * @param actorId     farmer or buyer id, 0 for deliveries
+     * @param typeId      dense type id, or NO_TYPE
+     * @param count       number of animals
+     * @param waitedTicks ticks waited, 0 if not applicable
+     * @throws IOException              if the block cannot be written
+     * @throws IllegalArgumentException if an id does not fit below NO_TYPE
+     */
+    public void write(long tick, long threadId, Kind kind, boolean first, int actorId, int typeId, int count,
+            long waitedTicks) throws IOException {
+        if (threadId < 0 || threadId >= NO_TYPE || actorId < 0 || actorId >= NO_TYPE || typeId < 0
+                || typeId > NO_TYPE) {
+            throw new IllegalArgumentException("id too large for a log record: thread=" + threadId + " actor="
+                    + actorId + " type=" + typeId);
+        }
+        if (!block.hasRemaining()) {
+            flushBlock();
+        }
+        block.putInt((int) tick);
+        block.putInt((int) Math.min(waitedTicks, Integer.MAX_VALUE));
+        block.putChar((char) threadId);
+        block.putChar((char) actorId);
+        block.putChar((char) typeId);
+        block.putChar((char) Math.min(count, MAX_FIELD));
+        block.put((byte) kind.ordinal());
+        block.put((byte) (first ? FIRST : 0));
+    }
+
+    /**
+     * Writes out the current partial block.
+     *
+     * @throws IOException if the block cannot be written
+     */
+    public void flush() throws IOException {
+        if (block.position() > 0) {
+            flushBlock();
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        int rawLength = block.position();
+        byte[] data = block.array();
+        int storedLength = rawLength;
+        if (compress) {
+            deflater.reset();
+            deflater.setInput(data, 0, rawLength);
+            deflater.finish();
+            int deflated = deflater.deflate(compressed);
+            // Incompressible blocks are stored raw, marked by storedLength == rawLength
+            if (deflater.finished() && deflated < rawLength) {
+                storedLength = deflated;
+                data = compressed;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(rawLength).putInt(storedLength).flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(data, 0, storedLength));
+        block.clear();
+
+        if (segmentBytes >= maxSegmentBytes) {
+            channel.close();
+            segment++;
+            openSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        String fileName = String.format("%s-%05d.flog", prefix, segment);
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segmentBytes = 0;
+
+        // Type names go in every segment so each file decodes on its own
+        AnimalType[] types = AnimalType.values();
+        if (types.length >= NO_TYPE) {
+            channel.close();
+            throw new IOException("too many animal types for a binary log: " + types.length);
+        }
+        int size = MAGIC.length + 8;
+        byte[][] names = new byte[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            names[i] = types[i].getName().getBytes(StandardCharsets.UTF_8);
+            size += 2 + names[i].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size);
+        header.put(MAGIC).putInt(compress ? FILE_COMPRESSED : 0).putInt(types.length);
+        for (byte[] name : names) {
+            header.putShort((short) name.length).put(name);
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentBytes += channel.write(buffer);
+        }
+    }
+}
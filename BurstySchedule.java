@@ -0,0 +1,41 @@
+import java.util.Random;
+
+/**
+ * Deliveries arrive in bursts: burstLength deliveries on consecutive ticks,
+ * then a quiet gap, repeating every interval * burstLength ticks. The
+ * long-run rate matches a fixed schedule with the same interval, but the
+ * enclosure sees a spike at the start of every burst.
+ */
+public class BurstySchedule extends DeliverySchedule {
+    private final int animals;
+    private final int burstLength;
+    private final int period;
+    private final Random random;
+    private int inBurst = 0; // deliveries made in the current burst
+    private long burstStart = -1; // first tick of the current burst, -1 before the first
+
+    /**
+     * @param interval    Mean ticks between deliveries
+     * @param animals     Animals per delivery
+     * @param burstLength Deliveries per burst
+     * @param random      Source of randomness for animal types
+     */
+    public BurstySchedule(int interval, int animals, int burstLength, Random random) {
+        this.animals = animals;
+        this.burstLength = burstLength;
+        this.period = interval * burstLength;
+        this.random = random;
+    }
+
+    @Override
+    public long next(long previousTick, AnimalBatch delivery) {
+        randomAnimals(delivery, animals, random);
+        if (burstStart < 0) {
+            burstStart = previousTick + period;
+        } else if (inBurst == burstLength) {
+            burstStart += period;
+            inBurst = 0;
+        }
+        return burstStart + inBurst++;
+    }
+}
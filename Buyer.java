@@ -5,35 +5,100 @@ import java.util.Random;
  * This acts like a consumer in the consumer-producer pattern
  */
 public class Buyer implements Runnable {
-    private static final int BUY_INTERVAL_TICKS_AVG = 10;
-    private static final int COLLECTION_TIME = 1;
+    static final int BUY_INTERVAL_TICKS_AVG = 10;
+    static final int COLLECTION_TIME = 1;
 
     private final Farm farm; // Shared resource
     private final TimeManager timeManager; // Shared resource
     private final AnimalType preferredType;
+    private final BuyerClass buyerClass;
     private static int nextId = 1; // Static counter for generating IDs
     private final int id;
     private final Random random = new Random();
 
+    // Progress reporting for the Watchdog - written only by this buyer's thread
+    private volatile Thread thread;
+    private volatile long waitingSinceTick = -1; // -1 when not waiting on the field
+    private volatile long lastPurchaseTick = 0;
+    private volatile long purchases = 0;
+    private volatile long totalWaitedTicks = 0;
+
     /**
-     * Creates a buyer with specific animal type preference.
+     * Creates a standard buyer with specific animal type preference.
      * 
      * @param farm          Shared farm instance
      * @param timeManager   Shared time manager
      * @param preferredType The animal type this buyer purchases
      */
     public Buyer(Farm farm, TimeManager timeManager, AnimalType preferredType) {
+        this(farm, timeManager, preferredType, BuyerClass.STANDARD);
+    }
+
+    /**
+     * Creates a buyer with specific animal type preference and service class.
+     * 
+     * @param farm          Shared farm instance
+     * @param timeManager   Shared time manager
+     * @param preferredType The animal type this buyer purchases
+     * @param buyerClass    Priority and maximum acceptable wait of the buyer
+     */
+    public Buyer(Farm farm, TimeManager timeManager, AnimalType preferredType, BuyerClass buyerClass) {
         this.farm = farm;
         this.timeManager = timeManager;
         this.preferredType = preferredType;
+        this.buyerClass = buyerClass;
         // Thread-safe assignment of ID
         synchronized (Buyer.class) {
             this.id = nextId++;
         }
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public AnimalType getPreferredType() {
+        return preferredType;
+    }
+
+    public BuyerClass getBuyerClass() {
+        return buyerClass;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Gets the tick at which this buyer started waiting on its field.
+     * 
+     * @return Tick the wait started, or -1 if the buyer is not waiting
+     */
+    public long getWaitingSinceTick() {
+        return waitingSinceTick;
+    }
+
+    public long getLastPurchaseTick() {
+        return lastPurchaseTick;
+    }
+
+    public long getPurchaseCount() {
+        return purchases;
+    }
+
+    /**
+     * Gets the ticks this buyer has spent waiting on its field, summed over all purchases.
+     * 
+     * @return Total waited ticks
+     */
+    public long getTotalWaitedTicks() {
+        return totalWaitedTicks;
+    }
+
     @Override
     public void run() {
+        thread = Thread.currentThread();
+        lastPurchaseTick = timeManager.getCurrentTick();
         try {
             while (!Thread.currentThread().isInterrupted()) {
                 // Random wait time with average of BUY_INTERVAL_TICKS_AVG
@@ -47,13 +112,22 @@ public class Buyer implements Runnable {
 
                 // Record start time for waiting
                 long startWaitTick = timeManager.getCurrentTick();
+                waitingSinceTick = startWaitTick;
 
-                // Take animal from field
+                // Take animal from field - buyers of a higher class are served first,
+                // and the deadline tells farmers when this buyer is at risk
                 // Thread-safe due to synchronization in Field class
-                Animal animal = field.takeAnimal();
+                int animal = field.takeAnimal(buyerClass, startWaitTick + buyerClass.getMaxWaitTicks());
 
                 // Calculate wait time
-                long waitedTicks = timeManager.getCurrentTick() - startWaitTick;
+                long purchaseTick = timeManager.getCurrentTick();
+                long waitedTicks = purchaseTick - startWaitTick;
+                waitingSinceTick = -1;
+                lastPurchaseTick = purchaseTick;
+                purchases++;
+                totalWaitedTicks += waitedTicks;
+                farm.getServiceLevels().record(buyerClass, waitedTicks);
+                farm.getTracker().sold(animal, purchaseTick, id);
 
                 // Wait for collection time to simulate processing
                 timeManager.waitTicks(COLLECTION_TIME);
@@ -61,7 +135,7 @@ public class Buyer implements Runnable {
                 // Log the purchase
                 Logger.logBuyerCollection(timeManager.getCurrentTick(),
                         Thread.currentThread().threadId(), id,
-                        typeToBuy.toString(), waitedTicks);
+                        typeToBuy, waitedTicks);
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
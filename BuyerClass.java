@@ -0,0 +1,81 @@
+/**
+ * Service class of a buyer.
+ * Classes are declared in priority order - a field serves waiting buyers
+ * of an earlier class first, and buyers of the same class in arrival order.
+ * Each class has a maximum acceptable wait, its service-level target.
+ */
+public enum BuyerClass {
+    PREMIUM(20),
+    STANDARD(100),
+    ECONOMY(400);
+
+    private final long maxWaitTicks;
+
+    BuyerClass(long maxWaitTicks) {
+        this.maxWaitTicks = maxWaitTicks;
+    }
+
+    /**
+     * Gets the longest a buyer of this class should wait on its field.
+     *
+     * @return Maximum acceptable wait in ticks
+     */
+    public long getMaxWaitTicks() {
+        return maxWaitTicks;
+    }
+
+    /**
+     * Parses a buyer mix such as "1:2:1" - how many buyers of each class,
+     * in declaration order, make up each repeating group of a field's buyers.
+     * Missing trailing counts are 0.
+     *
+     * @param spec Colon-separated counts
+     * @return Count per class, indexed by ordinal
+     * @throws IllegalArgumentException if a count is malformed or negative, or all are 0
+     */
+    public static int[] parseMix(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length > values().length) {
+            throw new IllegalArgumentException("more counts than buyer classes in " + spec);
+        }
+        int[] mix = new int[values().length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                mix[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid buyer count " + parts[i] + " in " + spec);
+            }
+            if (mix[i] < 0) {
+                throw new IllegalArgumentException("negative buyer count in " + spec);
+            }
+            total += mix[i];
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("no buyers in " + spec);
+        }
+        return mix;
+    }
+
+    /**
+     * Picks the class of a field's index-th buyer, cycling through the mix.
+     *
+     * @param index Buyer index within its field, from 0
+     * @param mix   Count per class, from parseMix
+     * @return The buyer's class
+     */
+    public static BuyerClass assign(int index, int[] mix) {
+        int total = 0;
+        for (int count : mix) {
+            total += count;
+        }
+        int slot = index % total;
+        for (int i = 0; i < mix.length; i++) {
+            if (slot < mix[i]) {
+                return values()[i];
+            }
+            slot -= mix[i];
+        }
+        throw new IllegalStateException("unreachable");
+    }
+}
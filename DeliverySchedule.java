@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides when deliveries arrive and what they contain.
+ * Each delivery producer owns its own schedule, so schedules are not
+ * thread-safe and need no locking.
+ *
+ * Schedules are described by a spec string:
+ *   fixed[:interval[:animals]]                   one delivery every interval ticks
+ *   poisson[:meanInterval[:animals]]             exponential gaps with the given mean
+ *   bursty[:interval[:animals[:burstLength]]]    burstLength back-to-back deliveries
+ *                                                every interval * burstLength ticks
+ *   trace:file                                   replayed from a file (see TraceSchedule)
+ * Omitted numbers default to 100 ticks and 10 animals, the original fixed rate.
+ */
+public abstract class DeliverySchedule {
+    public static final int DEFAULT_INTERVAL_TICKS = 100;
+    public static final int DEFAULT_ANIMALS_PER_DELIVERY = 10;
+    public static final int DEFAULT_BURST_LENGTH = 5;
+
+    /**
+     * Gets the next delivery.
+     *
+     * @param previousTick Tick of the previous delivery, or the start tick
+     * @param delivery     Batch to fill with the animals to deliver
+     * @return Tick at which the delivery arrives, or -1 if the schedule has ended
+     */
+    public abstract long next(long previousTick, AnimalBatch delivery);
+
+    /**
+     * Creates a schedule from a spec string.
+     *
+     * @param spec   Schedule description, e.g. "poisson:50:10"
+     * @param random Source of randomness for arrival times and animal types
+     * @return The schedule
+     * @throws IOException              if a trace file cannot be read
+     * @throws IllegalArgumentException if the spec is malformed
+     */
+    public static DeliverySchedule parse(String spec, Random random) throws IOException {
+        String[] parts = spec.split(":");
+        String kind = parts[0];
+        if (kind.equals("trace")) {
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("expected trace:file");
+            }
+            return TraceSchedule.load(parts[1], random);
+        }
+
+        int interval = number(parts, 1, DEFAULT_INTERVAL_TICKS);
+        int animals = number(parts, 2, DEFAULT_ANIMALS_PER_DELIVERY);
+        switch (kind) {
+            case "fixed":
+                return new FixedIntervalSchedule(interval, animals, random);
+            case "poisson":
+                return new PoissonSchedule(interval, animals, random);
+            case "bursty":
+                return new BurstySchedule(interval, animals, number(parts, 3, DEFAULT_BURST_LENGTH), random);
+            default:
+                throw new IllegalArgumentException("unknown delivery schedule " + kind);
+        }
+    }
+
+    /**
+     * Fills a batch with animals of uniformly random types.
+     *
+     * @param delivery Batch to fill, cleared first
+     * @param animals  Number of animals
+     * @param random   Source of randomness
+     */
+    protected static void randomAnimals(AnimalBatch delivery, int animals, Random random) {
+        // Only the types used by the previous delivery are reset
+        delivery.clear();
+        int typeCount = AnimalType.count();
+        for (int i = 0; i < animals; i++) {
+            delivery.add(random.nextInt(typeCount), 1);
+        }
+    }
+
+    private static int number(String[] parts, int index, int defaultValue) {
+        if (parts.length <= index || parts[index].isEmpty()) {
+            return defaultValue;
+        }
+        int value = Integer.parseInt(parts[index]);
+        if (value < 1) {
+            throw new IllegalArgumentException("schedule values must be at least 1: " + parts[index]);
+        }
+        return value;
+    }
+}
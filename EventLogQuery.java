@@ -0,0 +1,220 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes and queries binary event logs written by BinaryEventLog.
+ * Prints matching events in the same text format as the console log,
+ * or a count per event kind.
+ *
+ * Usage: java EventLogQuery [kind=name] [from=tick] [to=tick] [type=name] [count] file...
+ * e.g.   java EventLogQuery kind=collected_from_field type=pigs from=1000 events-*.flog
+ */
+public class EventLogQuery {
+    private BinaryEventLog.Kind kindFilter = null;
+    private long fromTick = Long.MIN_VALUE;
+    private long toTick = Long.MAX_VALUE;
+    private String typeFilter = null;
+    private int typeFilterId = -2; // resolved once the catalogue is known
+    private boolean countOnly = false;
+    private final long[] counts = new long[BinaryEventLog.Kind.values().length];
+    private boolean catalogueLoaded = false;
+    private final PrintWriter out = new PrintWriter(System.out, false); // buffered, flushed in finish
+
+    // The event being assembled from its records
+    private long tick;
+    private long threadId;
+    private BinaryEventLog.Kind kind;
+    private int actorId;
+    private long waitedTicks;
+    private boolean matchesType;
+    private AnimalBatch animals;
+    private int singleType;
+    private int singleCount;
+    private boolean pending = false;
+
+    public static void main(String[] args) {
+        EventLogQuery query = new EventLogQuery();
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            try {
+                if (arg.startsWith("kind=")) {
+                    query.kindFilter = BinaryEventLog.Kind.forName(arg.substring(5));
+                } else if (arg.startsWith("from=")) {
+                    query.fromTick = Long.parseLong(arg.substring(5));
+                } else if (arg.startsWith("to=")) {
+                    query.toTick = Long.parseLong(arg.substring(3));
+                } else if (arg.startsWith("type=")) {
+                    query.typeFilter = arg.substring(5);
+                } else if (arg.equals("count")) {
+                    query.countOnly = true;
+                } else {
+                    files.add(arg);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid argument " + arg + ": " + e.getMessage());
+                System.exit(2);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java EventLogQuery [kind=name] [from=tick] [to=tick] [type=name] [count] file...");
+            System.exit(2);
+        }
+
+        try {
+            for (String file : files) {
+                query.read(file);
+            }
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            System.err.println("Could not read event log (" + e.getMessage() + ")");
+            System.exit(1);
+        }
+        query.finish();
+    }
+
+    private void read(String file) throws IOException, DataFormatException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(file)))) {
+            byte[] magic = new byte[BinaryEventLog.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, BinaryEventLog.MAGIC)) {
+                throw new IOException(file + " is not a farm event log");
+            }
+            boolean compressed = (in.readInt() & BinaryEventLog.FILE_COMPRESSED) != 0;
+            int typeCount = in.readInt();
+            StringBuilder catalogue = new StringBuilder();
+            for (int i = 0; i < typeCount; i++) {
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                catalogue.append(new String(name, StandardCharsets.UTF_8)).append('\n');
+            }
+            if (!catalogueLoaded) {
+                // Install the writer's catalogue so names and text formats match
+                AnimalType.loadCatalogue(new StringReader(catalogue.toString()), file, 0);
+                animals = new AnimalBatch();
+                catalogueLoaded = true;
+                if (typeFilter != null) {
+                    typeFilterId = -1;
+                    for (AnimalType type : AnimalType.values()) {
+                        if (type.getName().equals(typeFilter) || type.toString().equals(typeFilter)) {
+                            typeFilterId = type.getId();
+                        }
+                    }
+                }
+            }
+
+            byte[] stored = new byte[BinaryEventLog.BLOCK_SIZE + BinaryEventLog.BLOCK_SIZE / 8 + 64];
+            byte[] raw = new byte[BinaryEventLog.BLOCK_SIZE];
+            Inflater inflater = new Inflater();
+            try {
+                while (true) {
+                    int rawLength;
+                    try {
+                        rawLength = in.readInt();
+                    } catch (EOFException e) {
+                        break; // end of segment
+                    }
+                    int storedLength = in.readInt();
+                    in.readFully(stored, 0, storedLength);
+                    ByteBuffer block;
+                    if (compressed && storedLength < rawLength) {
+                        inflater.reset();
+                        inflater.setInput(stored, 0, storedLength);
+                        inflater.inflate(raw, 0, rawLength);
+                        block = ByteBuffer.wrap(raw, 0, rawLength);
+                    } else {
+                        block = ByteBuffer.wrap(stored, 0, storedLength);
+                    }
+                    while (block.remaining() >= BinaryEventLog.RECORD_SIZE) {
+                        record(block);
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Decodes one record, emitting the previous event when a new one starts.
+     */
+    private void record(ByteBuffer block) {
+        long recordTick = block.getInt();
+        long recordWaited = block.getInt();
+        long recordThread = block.getChar();
+        int recordActor = block.getChar();
+        int recordType = block.getChar();
+        int recordCount = block.getChar();
+        BinaryEventLog.Kind recordKind = BinaryEventLog.Kind.values()[block.get()];
+        boolean first = (block.get() & BinaryEventLog.FIRST) != 0;
+
+        if (first) {
+            emit();
+            tick = recordTick;
+            threadId = recordThread;
+            kind = recordKind;
+            actorId = recordActor;
+            waitedTicks = recordWaited;
+            matchesType = false;
+            animals.clear();
+            singleType = recordType;
+            singleCount = recordCount;
+            pending = true;
+        }
+        if (recordType != BinaryEventLog.NO_TYPE) {
+            animals.add(recordType, recordCount);
+            matchesType |= recordType == typeFilterId;
+        }
+    }
+
+    private void emit() {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        if ((kindFilter != null && kind != kindFilter) || tick < fromTick || tick > toTick
+                || (typeFilter != null && !matchesType)) {
+            return;
+        }
+        counts[kind.ordinal()]++;
+        if (!countOnly) {
+            out.println(format());
+        }
+    }
+
+    private String format() {
+        AnimalType type = singleType == BinaryEventLog.NO_TYPE ? null : AnimalType.get(singleType);
+        switch (kind) {
+            case DELIVERY:
+                return Logger.formatDelivery(tick, threadId, animals);
+            case FARMER_COLLECTION:
+                return Logger.formatFarmerCollection(tick, threadId, actorId, waitedTicks, animals);
+            case BUYER_COLLECTION:
+                return Logger.formatBuyerCollection(tick, threadId, actorId, type, waitedTicks);
+            case FARMER_RETURN:
+                return Logger.formatFarmerReturn(tick, threadId, actorId);
+            default:
+                return Logger.formatFarmerAction(tick, threadId, actorId, kind.action(), type, singleCount);
+        }
+    }
+
+    private void finish() {
+        emit();
+        if (countOnly) {
+            for (BinaryEventLog.Kind k : BinaryEventLog.Kind.values()) {
+                out.println(k.action() + "=" + counts[k.ordinal()]);
+            }
+        }
+        out.flush();
+    }
+}
@@ -1,28 +1,81 @@
-import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This coordinates for the farm simulation.
  * Manages enclosure (shared resource) and fields.
  * Uses monitor pattern for thread-safe access to shared resources.
+ * Also hands out consistent snapshots of the whole farm without locking,
+ * see snapshot.
  */
 public class Farm {
+    // Optimistic snapshot attempts before falling back to taking every lock
+    private static final int SNAPSHOT_ATTEMPTS = 64;
+    // Oldest enclosure animals searched for fields with buyers at risk
+    private static final int RESCUE_SCAN_LIMIT = 64;
+    // Fields locked by nesting on the calling thread's own stack, and stack
+    // allowed per nested lock beyond that
+    private static final int NESTED_LOCKS_ON_CALLER = 1024;
+    private static final long LOCK_FRAME_BYTES = 256;
+
+    // Indexed by type id - only written in the constructor
+    private final Field[] fields;
+
+    private final FarmLayout layout; // Immutable, shared by all farmers
+
+    private final AnimalTracker tracker;
+
+    private final ServiceLevels serviceLevels = new ServiceLevels(); // buyer waits per class
+
     @GuardedBy("this")
-    private final Map<AnimalType, Field> fields = new HashMap<>();
+    private final IntQueue enclosure = new IntQueue(64); // animal handles in arrival order
 
+    // Flow counters - only change together with the enclosure, under the same lock.
+    // Volatile, like the per-type counts, so snapshots can read them without it
     @GuardedBy("this")
-    private final List<Animal> enclosure = new ArrayList<>();
+    private volatile long delivered = 0;
+    @GuardedBy("this")
+    private volatile long collected = 0;
+    @GuardedBy("this")
+    private volatile long returned = 0;
+    @GuardedBy("this")
+    private volatile int enclosureSize = 0; // enclosure.size()
+
+    // Per-type flow counters, indexed by type id - written under this monitor
+    private final AtomicLongArray deliveredByType;
+    private final AtomicLongArray collectedByType;
+    private final AtomicLongArray returnedByType;
+
+    // Stamped by every change to the enclosure; each field has its own
+    private final SnapshotVersion version = new SnapshotVersion();
+    private final AtomicLong snapshotFallbacks = new AtomicLong();
+
+    /**
+     * Creates farm from the animal catalogue with a uniform layout.
+     */
+    public Farm() {
+        this(FarmLayout.uniform(FarmSimulation.DEFAULT_TRAVEL_TIME), new AnimalTracker(false));
+    }
 
     /**
-     * Creates farm with a field capacity.
-     * Initialises fields for each animal
+     * Creates farm from the animal catalogue.
+     * Initialises a field for each animal type using its configured
+     * capacity and initial stock.
      * 
-     * @param fieldCapacity max capacity of each field
+     * @param layout  travel times between the enclosure and fields
+     * @param tracker per-animal lifecycle store (may be disabled)
      */
-    public Farm(int fieldCapacity) {
-        // Initialise fields with initial animals (default is 5)
-        for (AnimalType type : AnimalType.values()) {
-            fields.put(type, new Field(type, FarmSimulation.INITIAL_ANIMALS_PER_FIELD, fieldCapacity));
+    public Farm(FarmLayout layout, AnimalTracker tracker) {
+        this.layout = layout;
+        this.tracker = tracker;
+        AnimalType[] types = AnimalType.values();
+        fields = new Field[types.length];
+        for (AnimalType type : types) {
+            fields[type.getId()] = new Field(type, type.getInitialStock(), type.getCapacity());
         }
+        deliveredByType = new AtomicLongArray(types.length);
+        collectedByType = new AtomicLongArray(types.length);
+        returnedByType = new AtomicLongArray(types.length);
     }
 
     /**
@@ -30,21 +83,30 @@ public class Farm {
      * Thread safe (synchronized) when modifying the enclosure.
      * Implements the "signal" part of the monitor pattern.
      * 
-     * @param animalCounts Map of animal types and counts to add
-     * @param tick         Current simulation tick for logging
+     * @param delivery Batch of animal counts to add
+     * @param tick     Current simulation tick for logging
      */
-    public synchronized void addAnimalsToEnclosure(Map<AnimalType, Integer> animalCounts, long tick) {
+    public synchronized void addAnimalsToEnclosure(AnimalBatch delivery, long tick) {
         // Log the delivery
-        Logger.logDelivery(tick, Thread.currentThread().threadId(), animalCounts);
+        Logger.logDelivery(tick, Thread.currentThread().threadId(), delivery);
 
         // Add the animals to the enclosure - critical section
-        for (Map.Entry<AnimalType, Integer> entry : animalCounts.entrySet()) {
-            AnimalType type = entry.getKey();
-            int count = entry.getValue();
+        version.beginWrite();
+        try {
+            for (int i = 0; i < delivery.distinctTypes(); i++) {
+                int typeId = delivery.typeAt(i);
+                int count = delivery.count(typeId);
 
-            for (int i = 0; i < count; i++) {
-                enclosure.add(new Animal(type));
+                for (int j = 0; j < count; j++) {
+                    // Tracker ids are allocated here, serialised by this monitor
+                    enclosure.add(tracker.delivered(typeId, tick));
+                }
+                deliveredByType.set(typeId, deliveredByType.get(typeId) + count);
             }
+            delivered += delivery.total();
+            enclosureSize = enclosure.size();
+        } finally {
+            version.endWrite();
         }
 
         // Notify ALL waiting farmers that animals are available
@@ -56,34 +118,357 @@ public class Farm {
      * Collects animals from the enclosure up to the max count.
      * Thread-safe using mutual exclusion via synchronization.
      * 
-     * @param maxCount Maximum number of animals to collect
-     * @return Map of animal types to lists of collected animals
+     * Collected counts are added to the caller's batch and the animals to the
+     * caller's array so no allocation is needed.
+     * 
+     * @param maxCount  Maximum number of animals to collect
+     * @param collected Batch that receives the collected animal counts
+     * @param animals   Array that receives the collected animal handles
+     * @return Number of animals collected
      */
-    public synchronized Map<AnimalType, List<Animal>> collectAnimalsFromEnclosure(int maxCount) {
-        Map<AnimalType, List<Animal>> collected = new HashMap<>();
-        for (AnimalType type : AnimalType.values()) {
-            collected.put(type, new ArrayList<>());
-        }
+    public synchronized int collectAnimalsFromEnclosure(int maxCount, AnimalBatch collected, int[] animals) {
+        return collectAnimalsFromEnclosure(maxCount, collected, animals, -1);
+    }
 
+    /**
+     * Collects animals from the enclosure up to the max count, first taking
+     * animals for fields whose waiting buyers are at risk of missing their
+     * deadline (see Farmer.isAtRisk), as many as are waiting. Only the oldest
+     * RESCUE_SCAN_LIMIT animals are searched; the rest of the load is taken
+     * oldest first as usual.
+     * 
+     * @param maxCount  Maximum number of animals to collect
+     * @param collected Batch that receives the collected animal counts
+     * @param animals   Array that receives the collected animal handles
+     * @param tick      Current tick, or -1 to collect oldest first only
+     * @return Number of animals collected
+     * @throws IllegalArgumentException if animals has room for fewer than maxCount
+     */
+    public synchronized int collectAnimalsFromEnclosure(int maxCount, AnimalBatch collected, int[] animals,
+            long tick) {
+        if (animals.length < maxCount) {
+            throw new IllegalArgumentException("room for " + animals.length + " animals, asked for " + maxCount);
+        }
+        if (enclosure.isEmpty()) {
+            return 0;
+        }
         int count = 0;
-        while (!enclosure.isEmpty() && count < maxCount) {
-            Animal animal = enclosure.remove(0); // Removes and returns the first element
-            collected.get(animal.getType()).add(animal);
-            count++;
+        version.beginWrite();
+        try {
+            if (tick >= 0) {
+                int scan = Math.min(enclosure.size(), RESCUE_SCAN_LIMIT);
+                for (int i = 0; i < scan && count < maxCount; i++) {
+                    int typeId = tracker.typeOf(enclosure.get(i));
+                    Field field = fields[typeId];
+                    // The final load is not known yet, so assume a full one
+                    long arrival = Farmer.directArrivalTick(layout, tick, typeId, maxCount);
+                    // Lock-free reads of the field, so no field monitor is taken under this one
+                    if (collected.count(typeId) < field.getWaitingBuyers()
+                            && Farmer.isAtRisk(field.getEarliestDeadline(), arrival)) {
+                        count = collect(enclosure.removeAt(i), collected, animals, count);
+                        i--;
+                        scan--;
+                    }
+                }
+            }
+            while (!enclosure.isEmpty() && count < maxCount) {
+                count = collect(enclosure.remove(), collected, animals, count); // Removes the oldest animal
+            }
+        } finally {
+            // Even if a write fails part way the version must not be left open,
+            // or every later snapshot would fall back to taking every lock
+            this.collected += count;
+            enclosureSize = enclosure.size();
+            version.endWrite();
         }
 
+        return count;
+    }
+
+    // Caller holds this monitor and is inside a version write
+    private int collect(int animal, AnimalBatch collected, int[] animals, int count) {
+        int typeId = tracker.typeOf(animal);
+        collected.add(typeId, 1);
+        collectedByType.set(typeId, collectedByType.get(typeId) + 1);
+        animals[count] = animal;
+        return count + 1;
+    }
+
+    /**
+     * Puts animals a farmer could not stock back into the enclosure.
+     * They join the back of the queue and waiting farmers are notified.
+     * 
+     * @param animals Array of animal handles to return
+     * @param count   Number of handles to take from the array
+     */
+    public synchronized void returnAnimalsToEnclosure(int[] animals, int count) {
+        if (count == 0) {
+            return;
+        }
+        version.beginWrite();
+        int added = 0;
+        try {
+            for (; added < count; added++) {
+                int typeId = tracker.typeOf(animals[added]);
+                enclosure.add(animals[added]);
+                returnedByType.set(typeId, returnedByType.get(typeId) + 1);
+            }
+        } finally {
+            returned += added;
+            enclosureSize = enclosure.size();
+            version.endWrite();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the total number of animals ever delivered to the enclosure.
+     * 
+     * @return Delivered animal count
+     */
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * Gets the total number of animals ever collected by farmers.
+     * 
+     * @return Collected animal count
+     */
+    public synchronized long getCollectedCount() {
         return collected;
     }
 
+    /**
+     * Gets the total number of unstocked animals farmers brought back.
+     * 
+     * @return Returned animal count
+     */
+    public synchronized long getReturnedCount() {
+        return returned;
+    }
+
+    /**
+     * Takes a consistent snapshot of the whole farm.
+     * Seqlock style: the state is read without any lock and read again if a
+     * transfer happened meanwhile, so producers and consumers are never
+     * blocked and polling every tick costs a few hundred volatile reads.
+     * Only if transfers keep overlapping the read does it fall back to
+     * holding the farm and every field monitor for the copy.
+     * 
+     * @return New snapshot
+     */
+    public FarmSnapshot snapshot() {
+        return snapshot(new FarmSnapshot(fields.length));
+    }
+
+    /**
+     * Takes a consistent snapshot into an existing one, for pollers that
+     * do not want to allocate.
+     * 
+     * @param into Snapshot to overwrite, sized for this farm
+     * @return The same snapshot
+     */
+    public FarmSnapshot snapshot(FarmSnapshot into) {
+        if (trySnapshot(into)) {
+            return into;
+        }
+        snapshotFallbacks.incrementAndGet();
+        withEveryLock(() -> {
+            readInto(into);
+            long total = version.stableVersion();
+            for (Field field : fields) {
+                total += field.getVersion().stableVersion();
+            }
+            into.version = total;
+        });
+        return into;
+    }
+
+    /**
+     * Tries to take a consistent snapshot without ever taking a lock, for
+     * pollers that must not block - e.g. the Watchdog, which has to keep
+     * working while a thread is stuck holding a monitor.
+     * 
+     * @param into Snapshot to overwrite, sized for this farm
+     * @return True if the snapshot is consistent, false if transfers kept
+     *         overlapping the read and its contents are not to be used
+     */
+    public boolean trySnapshot(FarmSnapshot into) {
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            if (tryReadInto(into)) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+
+    /**
+     * Reads once under the enclosure's and every field's version.
+     * Every version is found stable before anything is read and unchanged
+     * after everything is, so no part changed in between - the parts were
+     * all as read at one instant.
+     */
+    private boolean tryReadInto(FarmSnapshot into) {
+        long stable = version.stableVersion();
+        if (stable < 0) {
+            return false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            into.fieldVersions[i] = fields[i].getVersion().stableVersion();
+            if (into.fieldVersions[i] < 0) {
+                return false;
+            }
+        }
+        readInto(into);
+        if (!version.validate(stable)) {
+            return false;
+        }
+        long total = stable;
+        for (int i = 0; i < fields.length; i++) {
+            if (!fields[i].getVersion().validate(into.fieldVersions[i])) {
+                return false;
+            }
+            total += into.fieldVersions[i];
+        }
+        into.version = total;
+        return true;
+    }
+
+    /**
+     * Gets the number of snapshots that had to take every lock.
+     * 
+     * @return Fallback count
+     */
+    public long getSnapshotFallbackCount() {
+        return snapshotFallbacks.get();
+    }
+
+    /**
+     * Runs an action holding the farm monitor and then every field monitor.
+     * Every writer holds one of these, so nothing can change while it runs.
+     * Farm then fields in id order, as nothing takes a field monitor and
+     * then the farm's. The caller must hold none of them.
+     * Monitors can only be held by nesting, one stack frame per field, so
+     * with a large catalogue the action runs on a helper thread with a big
+     * enough stack while the caller waits.
+     * 
+     * @param action What to run with everything locked
+     */
+    void withEveryLock(Runnable action) {
+        Runnable locked = () -> {
+            synchronized (this) {
+                lockFields(0, action);
+            }
+        };
+        if (fields.length <= NESTED_LOCKS_ON_CALLER) {
+            locked.run();
+            return;
+        }
+        RuntimeException[] failure = new RuntimeException[1];
+        Thread helper = new Thread(null, () -> {
+            try {
+                locked.run();
+            } catch (RuntimeException e) {
+                failure[0] = e;
+            }
+        }, "FarmLockAll", (long) fields.length * LOCK_FRAME_BYTES + (1 << 20));
+        helper.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                helper.join(); // it still takes the locks, so keep waiting
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private void lockFields(int index, Runnable action) {
+        if (index == fields.length) {
+            action.run();
+            return;
+        }
+        synchronized (fields[index]) {
+            lockFields(index + 1, action);
+        }
+    }
+
+    private void readInto(FarmSnapshot into) {
+        into.enclosureSize = enclosureSize;
+        into.delivered = delivered;
+        for (int i = 0; i < fields.length; i++) {
+            into.deliveredByType[i] = deliveredByType.get(i);
+            into.collectedByType[i] = collectedByType.get(i);
+            into.returnedByType[i] = returnedByType.get(i);
+            fields[i].readInto(into);
+        }
+    }
+
+    /**
+     * Gets the per-animal lifecycle store.
+     * 
+     * @return The tracker, disabled unless tracking was requested
+     */
+    public AnimalTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Gets the buyer waits per service class.
+     * 
+     * @return Service level statistics, recorded into by every buyer
+     */
+    public ServiceLevels getServiceLevels() {
+        return serviceLevels;
+    }
+
     /**
      * Gets a field for the specified animal type.
-     * Thread-safe because fields map is final and initialised in constructor
+     * Thread-safe because fields array is final and initialised in constructor
      * 
      * @param type The animal type
      * @return The corresponding field
      */
     public Field getField(AnimalType type) {
-        return fields.get(type);
+        return fields[type.getId()];
+    }
+
+    /**
+     * Gets the field for the specified type id.
+     * 
+     * @param typeId Dense type id
+     * @return The corresponding field
+     */
+    public Field getField(int typeId) {
+        return fields[typeId];
+    }
+
+    /**
+     * Gets the farm layout.
+     * Thread-safe because the layout is immutable.
+     * 
+     * @return The farm layout
+     */
+    public FarmLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Gets the number of fields.
+     * 
+     * @return Number of fields, one per animal type
+     */
+    public int getFieldCount() {
+        return fields.length;
     }
 
     /**
@@ -118,4 +503,27 @@ public class Farm {
             wait(); // Release lock and wait to be notified
         }
     }
+
+    /**
+     * Waits until animals are available in the enclosure or the farmer is
+     * asked to retire.
+     * 
+     * @param farmer The waiting farmer
+     * @return True if animals are available, false if the farmer is retiring
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    public synchronized boolean waitForAnimals(Farmer farmer) throws InterruptedException {
+        while (enclosure.isEmpty() && !farmer.isRetiring()) {
+            wait();
+            farmer.stillWaiting(); // woken but nothing left - idle afresh, not stuck
+        }
+        return !farmer.isRetiring();
+    }
+
+    /**
+     * Wakes every farmer waiting for animals so they can recheck why they wait.
+     */
+    public synchronized void wakeFarmers() {
+        notifyAll();
+    }
 }
@@ -0,0 +1,230 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Physical layout of the farm as a weighted graph.
+ * Node 0 is the enclosure and node (typeId + 1) is the field for that type.
+ * Shortest travel times between the locations a layout file names are
+ * computed once at startup, so lookups during the simulation are a single
+ * array read. Nothing is stored per pair of the catalogue's fields: the
+ * uniform layout keeps just its one travel time, and fields a layout file
+ * leaves out hang off the enclosure, so the layout works at any catalogue
+ * size.
+ * Immutable after construction, so it can be shared between farmers.
+ */
+public class FarmLayout {
+    public static final int ENCLOSURE = 0;
+    // Most locations a layout file may name - their distance table must fit one array
+    static final int MAX_PLACED_LOCATIONS = 46340;
+
+    private final int defaultTravelTime; // between any two locations if uniform, else enclosure to an unplaced field
+    private final int[] placeOf; // node -> row in distances, -1 if not in the layout file; null if uniform
+    private final int placed;
+    private final int[] distances; // placed x placed, row-major; null if uniform
+
+    private FarmLayout(int defaultTravelTime, int[] placeOf, int placed, int[] distances) {
+        this.defaultTravelTime = defaultTravelTime;
+        this.placeOf = placeOf;
+        this.placed = placed;
+        this.distances = distances;
+    }
+
+    /**
+     * Creates a layout where every location is directly connected to every
+     * other at the same cost. This matches the original flat travel time.
+     *
+     * @param travelTime ticks between any two locations
+     * @return the layout
+     */
+    public static FarmLayout uniform(int travelTime) {
+        return new FarmLayout(travelTime, null, 0, null);
+    }
+
+    /**
+     * Loads a layout from a file of undirected edges, one per line:
+     * from to cost. Location names are "enclosure" or an animal type name.
+     * Any other name is treated as a junction (e.g. a gate or crossroads).
+     * Blank lines and lines starting with '#' are ignored.
+     * Fields the file does not name are reached straight from the
+     * enclosure in defaultTravelTime ticks.
+     * Must be called after the animal catalogue has been loaded.
+     *
+     * @param filename          path of the layout file
+     * @param defaultTravelTime ticks from the enclosure to a field not in the file
+     * @return the layout
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed, a named field is
+     *                                  unreachable, or the file names more than
+     *                                  MAX_PLACED_LOCATIONS fields
+     */
+    public static FarmLayout load(String filename, int defaultTravelTime) throws IOException {
+        Map<String, Integer> typeNodes = new HashMap<>();
+        for (AnimalType type : AnimalType.values()) {
+            typeNodes.put(type.getName(), fieldNode(type.getId()));
+        }
+
+        // Graph ids are handed out to names as they appear, the enclosure first
+        Map<String, Integer> graphIds = new HashMap<>();
+        List<Integer> layoutNodes = new ArrayList<>(); // graph id -> layout node, -1 for junctions
+        graphIds.put("enclosure", 0);
+        layoutNodes.add(ENCLOSURE);
+        List<int[]> edges = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException(filename + ":" + lineNumber + ": expected 'from to cost'");
+                }
+
+                int cost;
+                try {
+                    cost = Integer.parseInt(parts[2]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(filename + ":" + lineNumber + ": " + e.getMessage());
+                }
+                if (cost < 0) {
+                    throw new IllegalArgumentException(filename + ":" + lineNumber + ": negative cost");
+                }
+
+                int from = graphId(parts[0].toLowerCase(), graphIds, layoutNodes, typeNodes);
+                int to = graphId(parts[1].toLowerCase(), graphIds, layoutNodes, typeNodes);
+                edges.add(new int[] { from, to, cost });
+            }
+        }
+
+        int n = graphIds.size();
+        List<List<int[]>> adjacency = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            adjacency.add(new ArrayList<>());
+        }
+        for (int[] edge : edges) {
+            adjacency.get(edge[0]).add(new int[] { edge[1], edge[2] });
+            adjacency.get(edge[1]).add(new int[] { edge[0], edge[2] });
+        }
+
+        // Only the enclosure and the fields in the file get a row, junctions are just waypoints
+        int[] placeOf = new int[AnimalType.count() + 1];
+        Arrays.fill(placeOf, -1);
+        List<Integer> placedIds = new ArrayList<>(); // row -> graph id
+        for (int id = 0; id < n; id++) {
+            int node = layoutNodes.get(id);
+            if (node >= 0) {
+                placeOf[node] = placedIds.size();
+                placedIds.add(id);
+            }
+        }
+        int placed = placedIds.size();
+        if (placed > MAX_PLACED_LOCATIONS) {
+            throw new IllegalArgumentException(filename + ": names " + (placed - 1) + " fields, at most "
+                    + (MAX_PLACED_LOCATIONS - 1) + " fit a layout - leave the rest out to reach them from the enclosure");
+        }
+        int[] distances = new int[placed * placed];
+        for (int source = 0; source < placed; source++) {
+            int[] fromSource = shortestPaths(adjacency, placedIds.get(source));
+            for (int target = 0; target < placed; target++) {
+                int distance = fromSource[placedIds.get(target)];
+                if (distance == Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(filename + ": no route from "
+                            + nodeName(layoutNodes.get(placedIds.get(source))) + " to "
+                            + nodeName(layoutNodes.get(placedIds.get(target))));
+                }
+                distances[source * placed + target] = distance;
+            }
+        }
+        return new FarmLayout(defaultTravelTime, placeOf, placed, distances);
+    }
+
+    private static int graphId(String name, Map<String, Integer> graphIds, List<Integer> layoutNodes,
+            Map<String, Integer> typeNodes) {
+        return graphIds.computeIfAbsent(name, key -> {
+            layoutNodes.add(typeNodes.getOrDefault(key, -1));
+            return layoutNodes.size() - 1;
+        });
+    }
+
+    /**
+     * Dijkstra's algorithm from a single source.
+     * Only run at startup, so the boxing priority queue is fine.
+     */
+    private static int[] shortestPaths(List<List<int[]>> adjacency, int source) {
+        int[] dist = new int[adjacency.size()];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        dist[source] = 0;
+
+        // Entries encode (distance << 32 | node) so they sort by distance
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        queue.add((long) source);
+        while (!queue.isEmpty()) {
+            long entry = queue.poll();
+            int node = (int) entry;
+            long d = entry >>> 32;
+            if (d > dist[node]) {
+                continue; // stale entry
+            }
+            for (int[] edge : adjacency.get(node)) {
+                long candidate = d + edge[1];
+                if (candidate < dist[edge[0]]) {
+                    dist[edge[0]] = (int) candidate;
+                    queue.add(candidate << 32 | edge[0]);
+                }
+            }
+        }
+        return dist;
+    }
+
+    private static String nodeName(int node) {
+        return node == ENCLOSURE ? "enclosure" : AnimalType.get(node - 1).getName();
+    }
+
+    /**
+     * Gets the graph node of the field for a type.
+     *
+     * @param typeId dense type id
+     * @return the node index
+     */
+    public static int fieldNode(int typeId) {
+        return typeId + 1;
+    }
+
+    /**
+     * Gets the shortest travel time between two locations.
+     *
+     * @param from node index
+     * @param to   node index
+     * @return travel time in ticks
+     */
+    public int travelTime(int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        if (distances == null) {
+            return defaultTravelTime;
+        }
+        int fromRow = placeOf[from];
+        int toRow = placeOf[to];
+        if (fromRow >= 0 && toRow >= 0) {
+            return distances[fromRow * placed + toRow];
+        }
+        // A field not in the layout file is only connected to the enclosure
+        return legToEnclosure(fromRow) + legToEnclosure(toRow);
+    }
+
+    private int legToEnclosure(int row) {
+        return row >= 0 ? distances[row * placed + placeOf[ENCLOSURE]] : defaultTravelTime;
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -12,12 +13,22 @@ public class FarmSimulation {
     public static final int INITIAL_ANIMALS_PER_FIELD = 5;
     public static final int DEFAULT_FIELD_CAPACITY = 100;
     public static final int NUM_FARMERS = 3;
+    public static final int DEFAULT_TRAVEL_TIME = 10;
+    public static final long BINARY_LOG_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_WATCHDOG_TICKS = 500;
+    public static final int WATCHDOG_POLL_MS = 1000;
+    public static final String DEFAULT_DELIVERY_SCHEDULE = "fixed";
+    public static final int NUM_DELIVERY_PRODUCERS = 1;
+    public static final Farmer.StockingMode DEFAULT_STOCKING_MODE = Farmer.StockingMode.RESERVE;
+    public static final String DEFAULT_BUYER_MIX = "0:1:0"; // premium:standard:economy
     
     /**
      * Entry point for the simulation.
      * Creates and starts all simulation components.
      * 
-     * @param args Command line arguments: [tickTimeMs] [numFarmers] [fieldCapacity]
+     * @param args Command line arguments: [tickTimeMs] [numFarmers] [fieldCapacity] [catalogueFile] [layoutFile] [trackAnimals]
+     *             [binaryLogPrefix] [compressLog] [watchdogTicks]
+     *             [deliverySchedule] [numProducers] [stockingMode] [engine] [farmerPool] [buyerMix]
      */
     public static void main(String[] args) {
         int tickTimeMs = DEFAULT_TICK_TIME_MS;
@@ -49,42 +60,279 @@ public class FarmSimulation {
             }
         }
 
+        // Load the animal catalogue - must happen before any thread is started
+        String catalogueFile = args.length > 3 && !args[3].isEmpty() ? args[3] : null;
+        if (catalogueFile != null) {
+            try {
+                AnimalType.loadCatalogue(catalogueFile, fieldCapacity);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load animal catalogue (" + e.getMessage() + "). Using default animal types.");
+                catalogueFile = null;
+            }
+        }
+        if (catalogueFile == null) {
+            AnimalType.loadDefaultCatalogue(fieldCapacity);
+        }
+
+        // Load the farm layout - needs the catalogue to resolve field names
+        String layoutFile = args.length > 4 && !args[4].isEmpty() ? args[4] : null;
+        FarmLayout layout = null;
+        if (layoutFile != null) {
+            try {
+                layout = FarmLayout.load(layoutFile, DEFAULT_TRAVEL_TIME);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load farm layout (" + e.getMessage() + "). Using uniform travel time.");
+                layoutFile = null;
+            }
+        }
+        if (layout == null) {
+            layout = FarmLayout.uniform(DEFAULT_TRAVEL_TIME);
+        }
+
+        // Per-animal lifecycle tracking is off unless asked for
+        boolean trackAnimals = args.length > 5 && Boolean.parseBoolean(args[5]);
+        if (trackAnimals && AnimalType.count() > AnimalTracker.MAX_TYPES) {
+            System.err.println("Too many animal types to track (" + AnimalType.count() + ", at most "
+                    + AnimalTracker.MAX_TYPES + "). Using no tracking.");
+            trackAnimals = false;
+        }
+        AnimalTracker tracker = new AnimalTracker(trackAnimals);
+
+        // Events go to a rotating binary log instead of the console if a prefix is given
+        String binaryLogPrefix = args.length > 6 && !args[6].isEmpty() ? args[6] : null;
+        boolean compressLog = args.length > 7 && Boolean.parseBoolean(args[7]);
+        BinaryEventLog binaryLog = null;
+        if (binaryLogPrefix != null) {
+            try {
+                binaryLog = new BinaryEventLog(binaryLogPrefix, BINARY_LOG_SEGMENT_BYTES, compressLog);
+            } catch (IOException e) {
+                System.err.println("Could not open binary event log (" + e.getMessage() + "). Logging as text.");
+                binaryLogPrefix = null;
+            }
+        }
+
+        // Stall watchdog threshold in ticks, 0 turns the watchdog off
+        int watchdogTicks = DEFAULT_WATCHDOG_TICKS;
+        if (args.length > 8 && !args[8].isEmpty()) {
+            try {
+                watchdogTicks = Integer.parseInt(args[8]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid watchdog threshold provided. Using default: " + DEFAULT_WATCHDOG_TICKS + " ticks");
+            }
+        }
+
+        // Each delivery producer gets its own schedule built from the same spec
+        String scheduleSpec = args.length > 9 && !args[9].isEmpty() ? args[9] : DEFAULT_DELIVERY_SCHEDULE;
+        int numProducers = NUM_DELIVERY_PRODUCERS;
+        if (args.length > 10 && !args[10].isEmpty()) {
+            try {
+                numProducers = Integer.parseInt(args[10]);
+                if (numProducers <= 0) {
+                    throw new NumberFormatException(args[10]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid number of delivery producers provided. Using default: " + NUM_DELIVERY_PRODUCERS);
+                numProducers = NUM_DELIVERY_PRODUCERS;
+            }
+        }
+        List<DeliverySchedule> schedules = new ArrayList<>();
+        try {
+            for (int i = 0; i < numProducers; i++) {
+                schedules.add(DeliverySchedule.parse(scheduleSpec, new Random()));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not create delivery schedule (" + e.getMessage() + "). Using default: "
+                    + DEFAULT_DELIVERY_SCHEDULE);
+            scheduleSpec = DEFAULT_DELIVERY_SCHEDULE;
+            schedules.clear();
+            for (int i = 0; i < numProducers; i++) {
+                schedules.add(new FixedIntervalSchedule(DeliverySchedule.DEFAULT_INTERVAL_TICKS,
+                        DeliverySchedule.DEFAULT_ANIMALS_PER_DELIVERY, new Random()));
+            }
+        }
+
+        // Reserving field space lets buyers keep buying while farmers are on their way
+        Farmer.StockingMode stockingMode = DEFAULT_STOCKING_MODE;
+        if (args.length > 11 && !args[11].isEmpty()) {
+            try {
+                stockingMode = Farmer.StockingMode.valueOf(args[11].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid stocking mode provided. Using default: "
+                        + DEFAULT_STOCKING_MODE.name().toLowerCase());
+            }
+        }
+
+        // Thread per actor, or actors on a worker pool sized to the core count
+        boolean actorEngine = args.length > 12 && args[12].equals("actors");
+        if (args.length > 12 && !args[12].isEmpty() && !actorEngine && !args[12].equals("threads")) {
+            System.err.println("Invalid engine provided. Using default: threads");
+        }
+        if (actorEngine && stockingMode != Farmer.StockingMode.RESERVE) {
+            System.err.println("The actor engine always reserves field space. Using stocking mode: reserve");
+            stockingMode = Farmer.StockingMode.RESERVE;
+        }
+
+        // Elastic farmer pool as "min-max", numFarmers is then just the starting size
+        int minFarmers = 0;
+        int maxFarmers = 0;
+        if (args.length > 13 && !args[13].isEmpty()) {
+            try {
+                String[] bounds = args[13].split("-");
+                if (bounds.length != 2) {
+                    throw new NumberFormatException(args[13]);
+                }
+                minFarmers = Integer.parseInt(bounds[0]);
+                maxFarmers = Integer.parseInt(bounds[1]);
+                if (minFarmers < 1 || maxFarmers < minFarmers) {
+                    throw new NumberFormatException(args[13]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid farmer pool bounds provided. Using a fixed pool of " + numFarmers);
+                maxFarmers = 0;
+            }
+        }
+        if (actorEngine && maxFarmers > 0) {
+            System.err.println("The actor engine runs a fixed farmer pool. Using " + numFarmers + " farmers");
+            maxFarmers = 0;
+        }
+
+        // Buyer service classes, cycled through each field's buyers
+        String buyerMixSpec = args.length > 14 && !args[14].isEmpty() ? args[14] : DEFAULT_BUYER_MIX;
+        int[] buyerMix;
+        try {
+            buyerMix = BuyerClass.parseMix(buyerMixSpec);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid buyer mix provided (" + e.getMessage() + "). Using default: "
+                    + DEFAULT_BUYER_MIX);
+            buyerMixSpec = DEFAULT_BUYER_MIX;
+            buyerMix = BuyerClass.parseMix(DEFAULT_BUYER_MIX);
+        }
+        if (actorEngine && !buyerMixSpec.equals(DEFAULT_BUYER_MIX)) {
+            System.err.println("The actor engine serves buyers in arrival order. Using buyer mix: "
+                    + DEFAULT_BUYER_MIX);
+            buyerMixSpec = DEFAULT_BUYER_MIX;
+            buyerMix = BuyerClass.parseMix(DEFAULT_BUYER_MIX);
+        }
+
         // Log simulation settings
         System.out.println("Farm Simulation Started with:");
         System.out.println("- Tick time (ms): " + tickTimeMs);
-        System.out.println("- Number of farmers: " + numFarmers);
+        System.out.println("- Number of farmers: " + numFarmers
+                + (maxFarmers > 0 ? " (elastic " + minFarmers + "-" + maxFarmers + ")" : ""));
         System.out.println("- Field capacity: " + fieldCapacity);
-        
+        System.out.println("- Animal types: " + AnimalType.count()
+                + (catalogueFile != null ? " (from " + catalogueFile + ")" : ""));
+        System.out.println("- Farm layout: " + (layoutFile != null ? layoutFile : "uniform"));
+        System.out.println("- Animal tracking: " + (trackAnimals ? "on" : "off"));
+        System.out.println("- Event log: " + (binaryLogPrefix != null
+                ? "binary " + binaryLogPrefix + "-*.flog" + (compressLog ? " (compressed)" : "") : "text"));
+        System.out.println("- Deliveries: " + scheduleSpec + " x " + numProducers + " producers");
+        System.out.println("- Stocking mode: " + stockingMode.name().toLowerCase());
+        System.out.println("- Engine: " + (actorEngine
+                ? "actors (" + Runtime.getRuntime().availableProcessors() + " workers)" : "threads"));
+        System.out.println("- Buyer mix (premium:standard:economy): " + buyerMixSpec);
+        System.out.println("- Watchdog: " + (watchdogTicks > 0 && !actorEngine ? watchdogTicks + " ticks" : "off"));
+
+        if (binaryLog != null) {
+            Logger.setBinaryLog(binaryLog);
+            // Flush the last block when the simulation is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Logger.closeBinaryLog();
+                } catch (IOException e) {
+                    System.err.println("Could not close binary event log (" + e.getMessage() + ")");
+                }
+            }, "EventLogClose"));
+        }
+
+        // The simulation runs until stopped, so report animal lifecycles on exit (e.g. Ctrl-C)
+        if (trackAnimals) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> tracker.printReport(System.out), "TrackerReport"));
+        }
+
+        // The same scenario as actors - the watchdog only applies to threads
+        if (actorEngine) {
+            ActorEngine engine = new ActorEngine(tickTimeMs, tickTimeMs);
+            ActorFarm actorFarm = new ActorFarm(engine, layout, tracker);
+            for (DeliverySchedule schedule : schedules) {
+                actorFarm.addProducer(schedule);
+            }
+            for (int i = 0; i < numFarmers; i++) {
+                actorFarm.addFarmer(i + 1);
+            }
+            for (AnimalType type : AnimalType.values()) {
+                for (int i = 0; i < type.getBuyerCount(); i++) {
+                    actorFarm.addBuyer(type);
+                }
+            }
+            engine.start();
+            actorFarm.start();
+            return;
+        }
+
         // These objects are shared across multiple threads
-        Farm farm = new Farm(fieldCapacity);
+        Farm farm = new Farm(layout, tracker);
         TimeManager timeManager = new TimeManager(tickTimeMs);
         
+        // Report how each buyer class was served when the simulation is stopped
+        if (!buyerMixSpec.equals(DEFAULT_BUYER_MIX)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> farm.getServiceLevels().printReport(System.out),
+                    "ServiceLevelReport"));
+        }
+
         // Start time manager thread
         Thread timeThread = new Thread(timeManager, "TimeManager");
         timeThread.start();
         
-        // Start animal delivery thread
-        AnimalDelivery delivery = new AnimalDelivery(farm, timeManager);
-        Thread deliveryThread = new Thread(delivery, "AnimalDelivery");
-        deliveryThread.start();
+        // Start animal delivery threads
+        for (int i = 0; i < schedules.size(); i++) {
+            AnimalDelivery delivery = new AnimalDelivery(farm, timeManager, schedules.get(i));
+            Thread deliveryThread = new Thread(delivery, "AnimalDelivery-" + (i + 1));
+            deliveryThread.start();
+        }
         
-        // Start farmer threads
+        // Start farmer threads, or a pool that starts and retires them as load changes
         List<Thread> farmerThreads = new ArrayList<>();
-        for (int i = 0; i < numFarmers; i++) {
-            Farmer farmer = new Farmer(i + 1, farm, timeManager);
-            // Naming threads helps with debugging
-            Thread farmerThread = new Thread(farmer, "Farmer-" + (i + 1));
-            farmerThreads.add(farmerThread);
-            farmerThread.start();
+        List<Farmer> farmers = new ArrayList<>();
+        if (maxFarmers > 0) {
+            FarmerPool pool = new FarmerPool(farm, timeManager, stockingMode, minFarmers, maxFarmers);
+            pool.start(numFarmers);
+            farmers = pool.getFarmers(); // live, so the watchdog sees farmers the pool adds
+            Thread poolThread = new Thread(pool, "FarmerPool");
+            poolThread.setDaemon(true);
+            poolThread.start();
+        } else {
+            for (int i = 0; i < numFarmers; i++) {
+                Farmer farmer = new Farmer(i + 1, farm, timeManager, stockingMode);
+                farmers.add(farmer);
+                // Naming threads helps with debugging
+                Thread farmerThread = new Thread(farmer, "Farmer-" + (i + 1));
+                farmerThreads.add(farmerThread);
+                farmerThread.start();
+            }
         }
         
-        // Start buyer threads (one per field type)
+        // Start buyer threads (configured number per field type)
         List<Thread> buyerThreads = new ArrayList<>();
+        List<Buyer> buyers = new ArrayList<>();
         for (AnimalType type : AnimalType.values()) {
-            Buyer buyer = new Buyer(farm, timeManager, type);
-            Thread buyerThread = new Thread(buyer, "Buyer-" + type);
-            buyerThreads.add(buyerThread);
-            buyerThread.start();
+            for (int i = 0; i < type.getBuyerCount(); i++) {
+                Buyer buyer = new Buyer(farm, timeManager, type, BuyerClass.assign(i, buyerMix));
+                buyers.add(buyer);
+                Thread buyerThread = new Thread(buyer, "Buyer-" + type + "-" + (i + 1));
+                buyerThreads.add(buyerThread);
+                buyerThread.start();
+            }
+        }
+
+        // Start the watchdog - farmers may go twice as long without progress,
+        // since a trip plus a break is legitimately that long
+        if (watchdogTicks > 0) {
+            Watchdog watchdog = new Watchdog(farm, timeManager, farmers, buyers,
+                    watchdogTicks, 2L * watchdogTicks, watchdogTicks, WATCHDOG_POLL_MS);
+            Thread watchdogThread = new Thread(watchdog, "Watchdog");
+            watchdogThread.setDaemon(true);
+            watchdogThread.start();
         }
     }
 }
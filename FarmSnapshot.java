@@ -0,0 +1,152 @@
+/**
+ * A consistent view of the whole farm at one instant, taken by Farm.snapshot
+ * without stopping producers or consumers.
+ * Holds the enclosure contents, every field's stock and stocking state, and
+ * the animals farmers are carrying between the two. Snapshots are meant to
+ * be polled, so one can be passed back to Farm.snapshot to be refilled
+ * instead of allocating a new one each tick.
+ *
+ * Not thread-safe - each poller should use its own.
+ */
+public class FarmSnapshot {
+    long version;
+    final long[] fieldVersions; // per field, scratch for Farm.snapshot
+
+    // Enclosure
+    int enclosureSize;
+    long delivered;
+    final long[] deliveredByType;
+    final long[] collectedByType;
+    final long[] returnedByType;
+
+    // Fields, indexed by type id
+    final int[] fieldCount;
+    final int[] reserved;
+    final boolean[] beingStocked;
+    final int[] waitingBuyers;
+    final long[] stocked;
+    final long[] sold;
+
+    /**
+     * Creates an empty snapshot for a farm with the given number of fields.
+     *
+     * @param fieldCount Number of fields, one per animal type
+     */
+    public FarmSnapshot(int fieldCount) {
+        deliveredByType = new long[fieldCount];
+        collectedByType = new long[fieldCount];
+        returnedByType = new long[fieldCount];
+        this.fieldCount = new int[fieldCount];
+        reserved = new int[fieldCount];
+        beingStocked = new boolean[fieldCount];
+        waitingBuyers = new int[fieldCount];
+        stocked = new long[fieldCount];
+        sold = new long[fieldCount];
+        fieldVersions = new long[fieldCount];
+    }
+
+    /**
+     * Gets the farm version the snapshot was taken at - the enclosure's and
+     * every field's version added up. It counts every change, so two
+     * snapshots with the same version are identical.
+     *
+     * @return Snapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getFieldCount() {
+        return fieldCount.length;
+    }
+
+    public int getEnclosureSize() {
+        return enclosureSize;
+    }
+
+    /**
+     * Gets the number of animals of one type waiting in the enclosure.
+     *
+     * @param typeId Dense type id
+     * @return Animals of that type in the enclosure
+     */
+    public long getEnclosureCount(int typeId) {
+        return deliveredByType[typeId] + returnedByType[typeId] - collectedByType[typeId];
+    }
+
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    public long getCollectedCount() {
+        long total = 0;
+        for (long count : collectedByType) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getReturnedCount() {
+        long total = 0;
+        for (long count : returnedByType) {
+            total += count;
+        }
+        return total;
+    }
+
+    public int getFieldAnimalCount(int typeId) {
+        return fieldCount[typeId];
+    }
+
+    public int getFieldReservedSpace(int typeId) {
+        return reserved[typeId];
+    }
+
+    public boolean isFieldBeingStocked(int typeId) {
+        return beingStocked[typeId];
+    }
+
+    public int getFieldWaitingBuyers(int typeId) {
+        return waitingBuyers[typeId];
+    }
+
+    public long getFieldStockedCount(int typeId) {
+        return stocked[typeId];
+    }
+
+    public long getFieldSoldCount(int typeId) {
+        return sold[typeId];
+    }
+
+    public long getSoldCount() {
+        long total = 0;
+        for (long count : sold) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of animals of one type farmers are carrying -
+     * collected from the enclosure but neither stocked nor brought back.
+     *
+     * @param typeId Dense type id
+     * @return Animals of that type in transit
+     */
+    public long getInTransitCount(int typeId) {
+        return collectedByType[typeId] - returnedByType[typeId] - stocked[typeId];
+    }
+
+    /**
+     * Gets the number of animals farmers are carrying in total.
+     *
+     * @return Animals in transit
+     */
+    public long getInTransitCount() {
+        long total = 0;
+        for (int i = 0; i < fieldCount.length; i++) {
+            total += getInTransitCount(i);
+        }
+        return total;
+    }
+}
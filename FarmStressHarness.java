@@ -0,0 +1,647 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless stress and soak harness for the farm simulation.
+ * Runs the real Farm, Field, Farmer, Buyer and AnimalDelivery classes with
+ * configurable numbers of threads and randomised tick lengths, and checks
+ * animal conservation and field capacity continuously while it runs.
+ *
+ * Usage: java FarmStressHarness [key=value ...]
+ * e.g.   java FarmStressHarness farmers=2000 buyers=20 types=100 duration=3600
+ */
+public class FarmStressHarness {
+    private static final int ENGINE_THREADS = 0;
+    private static final int ENGINE_ACTORS = 1;
+
+    private static final Map<String, Integer> DEFAULTS = new HashMap<>();
+    static {
+        DEFAULTS.put("farmers", 200); // farmer threads
+        DEFAULTS.put("types", 20); // animal types, one field each
+        DEFAULTS.put("buyers", 5); // buyer threads per type
+        DEFAULTS.put("producers", 10); // delivery threads, each with its own schedule
+        DEFAULTS.put("minCapacity", 5);
+        DEFAULTS.put("maxCapacity", 50);
+        DEFAULTS.put("minTick", 1); // tick length range in ms
+        DEFAULTS.put("maxTick", 3);
+        DEFAULTS.put("duration", 60); // run time in seconds
+        DEFAULTS.put("report", 10); // seconds between throughput reports
+        DEFAULTS.put("check", 200); // ms between invariant checks
+        DEFAULTS.put("stall", 30); // seconds without any sale before flagging a stall
+        DEFAULTS.put("seed", 42);
+        DEFAULTS.put("track", 0); // 1 to track every animal's lifecycle
+        DEFAULTS.put("exclusive", 0); // 1 for farmers to lock fields instead of reserving space
+        DEFAULTS.put("engine", ENGINE_THREADS); // 0 for a thread per actor, 1 for actors on a worker pool
+        DEFAULTS.put("workers", 0); // actor engine worker threads, 0 for one per core
+        DEFAULTS.put("watchdog", 0); // stall watchdog threshold in ticks, 0 for off
+        DEFAULTS.put("maxFarmers", 0); // above 0 lets a FarmerPool scale between minFarmers and this
+        DEFAULTS.put("minFarmers", 1);
+        DEFAULTS.put("premium", 0); // of each type's buyers, how many are premium (see BuyerClass)
+        DEFAULTS.put("economy", 0); // and how many economy, the rest are standard
+        DEFAULTS.put("snapshot", 1); // 1 to check live against lock-free snapshots, 0 to lock every monitor
+    }
+
+    // Written by the checker thread, read by the reporter
+    private static final AtomicLong checksRun = new AtomicLong();
+    private static final AtomicLong violations = new AtomicLong();
+    private static final AtomicLong stalls = new AtomicLong();
+    private static final AtomicLong soldTotal = new AtomicLong();
+    private static final AtomicLong deliveredTotal = new AtomicLong();
+    private static final AtomicLong enclosureBacklog = new AtomicLong();
+    private static final AtomicLong carriedTotal = new AtomicLong();
+    private static final AtomicLong snapshotNanos = new AtomicLong();
+
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    // Delivery schedule spec, the one non-numeric option (see DeliverySchedule)
+    private static String scheduleSpec = "fixed";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> config = parseArgs(args);
+        if (config == null) {
+            System.exit(2);
+            return;
+        }
+
+        Logger.setEnabled(false); // event lines would swamp the report
+        Random random = new Random(config.get("seed"));
+        installCatalogue(config, random);
+
+        AnimalTracker tracker;
+        try {
+            tracker = new AnimalTracker(config.get("track") != 0);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid option track=1: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        FarmLayout layout = FarmLayout.uniform(FarmSimulation.DEFAULT_TRAVEL_TIME);
+        long initialStock = 0;
+        for (AnimalType type : AnimalType.values()) {
+            initialStock += type.getInitialStock();
+        }
+        List<DeliverySchedule> schedules = new ArrayList<>();
+        try {
+            for (int i = 0; i < config.get("producers"); i++) {
+                schedules.add(DeliverySchedule.parse(scheduleSpec, new Random(random.nextLong())));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid schedule " + scheduleSpec + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        System.out.println("Farm stress harness started with " + config + " schedule=" + scheduleSpec);
+
+        String extra;
+        if (config.get("engine") == ENGINE_ACTORS) {
+            extra = runActors(config, layout, tracker, schedules, initialStock);
+        } else {
+            extra = runThreads(config, layout, tracker, schedules, initialStock);
+        }
+        tracker.printReport(System.out);
+
+        System.out.println("Final: checks=" + checksRun.get() + " violations=" + violations.get()
+                + " stalls=" + stalls.get() + " sold=" + soldTotal.get() + " delivered=" + deliveredTotal.get()
+                + extra);
+        System.exit(violations.get() == 0 && stalls.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the scenario with a thread per actor, checking invariants live.
+     *
+     * @return Extra fields for the final line
+     */
+    private static String runThreads(Map<String, Integer> config, FarmLayout layout, AnimalTracker tracker,
+            List<DeliverySchedule> schedules, long initialStock) throws InterruptedException {
+        Farm farm = new Farm(layout, tracker);
+        TimeManager timeManager = new TimeManager(config.get("minTick"), config.get("maxTick"));
+
+        List<Thread> actors = new ArrayList<>();
+        List<AnimalDelivery> producers = new ArrayList<>();
+        List<Farmer> farmers = new ArrayList<>();
+        List<Buyer> buyers = new ArrayList<>();
+        Thread timeThread = new Thread(timeManager, "TimeManager");
+        timeThread.start();
+        for (int i = 0; i < schedules.size(); i++) {
+            AnimalDelivery producer = new AnimalDelivery(farm, timeManager, schedules.get(i));
+            producers.add(producer);
+            actors.add(new Thread(producer, "AnimalDelivery-" + (i + 1)));
+        }
+        Farmer.StockingMode stockingMode = config.get("exclusive") != 0
+                ? Farmer.StockingMode.EXCLUSIVE : Farmer.StockingMode.RESERVE;
+        FarmerPool pool = null;
+        if (config.get("maxFarmers") > 0) {
+            pool = new FarmerPool(farm, timeManager, stockingMode, config.get("minFarmers"), config.get("maxFarmers"));
+            farmers = pool.getFarmers(); // live, so the watchdog sees the pool as it changes
+        } else {
+            for (int i = 0; i < config.get("farmers"); i++) {
+                Farmer farmer = new Farmer(i + 1, farm, timeManager, stockingMode);
+                farmers.add(farmer);
+                actors.add(new Thread(farmer, "Farmer-" + (i + 1)));
+            }
+        }
+        int[] buyerMix = {config.get("premium"), config.get("buyers") - config.get("premium") - config.get("economy"),
+                config.get("economy")};
+        for (AnimalType type : AnimalType.values()) {
+            for (int i = 0; i < type.getBuyerCount(); i++) {
+                Buyer buyer = new Buyer(farm, timeManager, type, BuyerClass.assign(i, buyerMix));
+                buyers.add(buyer);
+                actors.add(new Thread(buyer, "Buyer-" + type + "-" + (i + 1)));
+            }
+        }
+        for (Thread actor : actors) {
+            actor.start();
+        }
+        Thread poolThread = null;
+        if (pool != null) {
+            pool.start(config.get("farmers"));
+            poolThread = new Thread(pool, "FarmerPool");
+            poolThread.start();
+        }
+
+        boolean useSnapshots = config.get("snapshot") != 0;
+        FarmSnapshot snapshot = new FarmSnapshot(farm.getFieldCount()); // reused, only the checker uses it
+        Thread checker = new Thread(() -> runChecker(() -> {
+            if (useSnapshots) {
+                checkSnapshot(farm, snapshot, initialStock);
+            } else {
+                checkInvariants(farm, initialStock);
+            }
+        }, config), "InvariantChecker");
+        checker.setDaemon(true);
+        checker.start();
+
+        int watchdogTicks = config.get("watchdog");
+        Watchdog watchdog = null;
+        if (watchdogTicks > 0) {
+            watchdog = new Watchdog(farm, timeManager, farmers, buyers, watchdogTicks, 2L * watchdogTicks,
+                    watchdogTicks, config.get("check"));
+            Thread watchdogThread = new Thread(watchdog, "Watchdog");
+            watchdogThread.setDaemon(true);
+            watchdogThread.start();
+        }
+
+        report(config);
+        reportEnclosureLatency(producers);
+        int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+        // Shut down and run one last check with every actor stopped
+        for (Thread actor : actors) {
+            actor.interrupt();
+        }
+        if (pool != null) {
+            poolThread.interrupt();
+            poolThread.join(5000);
+            pool.stop();
+        }
+        timeManager.stop();
+        timeThread.interrupt();
+        checker.interrupt();
+        for (Thread actor : actors) {
+            actor.join(5000);
+        }
+        checker.join(5000);
+        long liveChecks = checksRun.get();
+        checkInvariants(farm, initialStock);
+
+        long purchases = 0;
+        long waited = 0;
+        for (Buyer buyer : buyers) {
+            purchases += buyer.getPurchaseCount();
+            waited += buyer.getTotalWaitedTicks();
+        }
+        long rescueTrips = 0;
+        if (pool != null) {
+            rescueTrips = pool.getRescueTripCount(); // includes farmers that retired
+        } else {
+            for (Farmer farmer : farmers) {
+                rescueTrips += farmer.getRescueTripCount();
+            }
+        }
+        farm.getServiceLevels().printReport(System.out);
+        // Throughput per farmer shows what an elastic pool saves over a static one
+        double avgFarmers = pool != null ? pool.getAverageFarmerCount() : config.get("farmers");
+        double salesPerSecond = (double) soldTotal.get() / config.get("duration");
+        String farmerStats = String.format(" avg_farmers=%.1f sales_per_farmer_s=%.2f", avgFarmers,
+                avgFarmers > 0 ? salesPerSecond / avgFarmers : 0.0)
+                + (pool != null ? " peak_farmers=" + pool.getPeakFarmerCount() + " farmers_added="
+                        + pool.getAddedCount() + " farmers_retired=" + pool.getRetiredCount() : "");
+        return " engine=threads peak_threads=" + peakThreads + " avg_buyer_wait=" + average(waited, purchases)
+                + " sla[" + farm.getServiceLevels().summary() + "] rescue_trips=" + rescueTrips
+                + farmerStats
+                + (useSnapshots ? " avg_snapshot_us=" + average(snapshotNanos.get() / 1000, liveChecks)
+                        + " snapshot_fallbacks=" + farm.getSnapshotFallbackCount() : "")
+                + (watchdog != null ? " watchdog_diagnoses=" + watchdog.getDiagnosisCount() : "");
+    }
+
+    /**
+     * Runs the same scenario as actors on a worker pool. Actor state can
+     * only be read consistently once the engine has stopped, so while it
+     * runs the counters are sampled for throughput and stall detection,
+     * and the invariants are checked exactly at the end.
+     *
+     * @return Extra fields for the final line
+     */
+    private static String runActors(Map<String, Integer> config, FarmLayout layout, AnimalTracker tracker,
+            List<DeliverySchedule> schedules, long initialStock) throws InterruptedException {
+        ActorEngine engine = config.get("workers") > 0
+                ? new ActorEngine(config.get("workers"), config.get("minTick"), config.get("maxTick"))
+                : new ActorEngine(config.get("minTick"), config.get("maxTick"));
+        ActorFarm farm = new ActorFarm(engine, layout, tracker);
+        for (DeliverySchedule schedule : schedules) {
+            farm.addProducer(schedule);
+        }
+        for (int i = 0; i < config.get("farmers"); i++) {
+            farm.addFarmer(i + 1);
+        }
+        for (AnimalType type : AnimalType.values()) {
+            for (int i = 0; i < type.getBuyerCount(); i++) {
+                farm.addBuyer(type);
+            }
+        }
+        engine.start();
+        farm.start();
+
+        Thread sampler = new Thread(() -> runChecker(() -> sample(farm), config), "CounterSampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        report(config);
+        int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+        sampler.interrupt();
+        sampler.join(5000);
+        engine.stop();
+        verify(farm, initialStock);
+        checksRun.incrementAndGet();
+
+        return " engine=actors workers=" + engine.getWorkerCount() + " peak_threads=" + peakThreads
+                + " avg_buyer_wait=" + average(farm.getTotalWaitedTicks(), farm.getPurchaseCount())
+                + " actor_failures=" + engine.getFailureCount();
+    }
+
+    private static String average(long total, long count) {
+        return String.format("%.2f", count > 0 ? (double) total / count : 0.0);
+    }
+
+    /**
+     * Prints throughput every report interval until the run duration is up.
+     * Sustained throughput is compared against the first window to expose
+     * degradation over long soak runs.
+     */
+    private static void report(Map<String, Integer> config) throws InterruptedException {
+        long reportMs = config.get("report") * 1000L;
+        long start = System.currentTimeMillis();
+        long end = start + config.get("duration") * 1000L;
+        long lastSold = 0;
+        double firstRate = -1;
+        double lastRate = 0;
+
+        while (System.currentTimeMillis() < end) {
+            long windowStart = System.currentTimeMillis();
+            Thread.sleep(Math.min(reportMs, Math.max(1, end - windowStart)));
+            double seconds = (System.currentTimeMillis() - windowStart) / 1000.0;
+
+            long sold = soldTotal.get();
+            double rate = (sold - lastSold) / seconds;
+            lastSold = sold;
+            if (firstRate < 0) {
+                firstRate = rate;
+            }
+            lastRate = rate;
+
+            long elapsed = (System.currentTimeMillis() - start) / 1000;
+            System.out.printf("t=%ds sold/s=%.1f avg_sold/s=%.1f delivered=%d enclosure=%d carried=%d checks=%d violations=%d stalls=%d%n",
+                    elapsed, rate, sold / Math.max(1.0, elapsed), deliveredTotal.get(), enclosureBacklog.get(),
+                    carriedTotal.get(), checksRun.get(), violations.get(), stalls.get());
+        }
+
+        double total = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.printf("Sustained throughput: %.1f sales/s over %.0fs (last window %.0f%% of first)%n",
+                soldTotal.get() / total, total, firstRate > 0 ? 100.0 * lastRate / firstRate : 100.0);
+    }
+
+    /**
+     * Prints how long producers took to hand deliveries to the enclosure,
+     * which with many producers is mostly time spent waiting for its lock.
+     */
+    private static void reportEnclosureLatency(List<AnimalDelivery> producers) {
+        long deliveries = 0;
+        long nanos = 0;
+        long maxNanos = 0;
+        for (AnimalDelivery producer : producers) {
+            deliveries += producer.getDeliveryCount();
+            nanos += producer.getEnclosureNanos();
+            maxNanos = Math.max(maxNanos, producer.getMaxEnclosureNanos());
+        }
+        System.out.printf("Enclosure deliveries: %d from %d producers, %.1fus average, %.1fus max%n",
+                deliveries, producers.size(), deliveries > 0 ? nanos / 1000.0 / deliveries : 0.0, maxNanos / 1000.0);
+    }
+
+    /**
+     * Checks invariants every check interval and flags stalls.
+     */
+    private static void runChecker(Runnable check, Map<String, Integer> config) {
+        long stallMs = config.get("stall") * 1000L;
+        long lastProgressSold = -1;
+        long lastProgressTime = System.currentTimeMillis();
+        boolean stalled = false;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(config.get("check"));
+                check.run();
+
+                long now = System.currentTimeMillis();
+                long sold = soldTotal.get();
+                if (sold != lastProgressSold) {
+                    lastProgressSold = sold;
+                    lastProgressTime = now;
+                    stalled = false;
+                } else if (!stalled && now - lastProgressTime >= stallMs) {
+                    stalled = true; // only flag each stall once
+                    stalls.incrementAndGet();
+                    System.out.println("STALL: no sales for " + (now - lastProgressTime) / 1000 + "s, enclosure="
+                            + enclosureBacklog.get() + " carried=" + carriedTotal.get() + " threads="
+                            + threadStateSummary());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks conservation and capacity against an exact view of the farm.
+     * Farm.withEveryLock holds the farm monitor and every field monitor, so no
+     * animal can be mid-transfer.
+     */
+    private static void checkInvariants(Farm farm, long initialStock) {
+        farm.withEveryLock(() -> verify(farm, initialStock));
+        checksRun.incrementAndGet();
+    }
+
+    /**
+     * Checks conservation and capacity against a lock-free snapshot, so
+     * the farm keeps running while it is checked.
+     */
+    private static void checkSnapshot(Farm farm, FarmSnapshot snapshot, long initialStock) {
+        long start = System.nanoTime();
+        farm.snapshot(snapshot);
+        snapshotNanos.addAndGet(System.nanoTime() - start);
+        verify(snapshot, initialStock);
+        checksRun.incrementAndGet();
+    }
+
+    private static void verify(Farm farm, long initialStock) {
+        long delivered = farm.getDeliveredCount();
+        long collected = farm.getCollectedCount();
+        long returned = farm.getReturnedCount();
+        long enclosure = farm.getEnclosureSize();
+
+        if (enclosure != delivered + returned - collected) {
+            violation("enclosure=" + enclosure + " but delivered+returned-collected="
+                    + (delivered + returned - collected));
+        }
+
+        long stocked = 0;
+        long sold = 0;
+        long inFields = 0;
+        for (int i = 0; i < farm.getFieldCount(); i++) {
+            Field field = farm.getField(i);
+            int count = field.getCurrentCount();
+            int reserved = field.getReservedSpace();
+            long fieldStocked = field.getStockedCount();
+            long fieldSold = field.getSoldCount();
+            if (count < 0 || count > field.getCapacity()) {
+                violation("field " + field + " holds " + count + " of capacity " + field.getCapacity());
+            }
+            if (reserved < 0 || count + reserved > field.getCapacity()) {
+                violation("field " + field + " holds " + count + " with " + reserved + " reserved, capacity "
+                        + field.getCapacity());
+            }
+            long expected = field.getAnimalType().getInitialStock() + fieldStocked - fieldSold;
+            if (count != expected) {
+                violation("field " + field + " holds " + count + " but initial+stocked-sold=" + expected);
+            }
+            stocked += fieldStocked;
+            sold += fieldSold;
+            inFields += count;
+        }
+
+        long carried = collected - returned - stocked;
+        if (carried < 0) {
+            violation("farmers carry " + carried + " animals");
+        }
+        if (initialStock + delivered != enclosure + carried + inFields + sold) {
+            violation("initial+delivered=" + (initialStock + delivered) + " but enclosure+carried+fields+sold="
+                    + (enclosure + carried + inFields + sold));
+        }
+
+        soldTotal.set(sold);
+        deliveredTotal.set(delivered);
+        enclosureBacklog.set(enclosure);
+        carriedTotal.set(carried);
+    }
+
+    private static void verify(FarmSnapshot snapshot, long initialStock) {
+        long delivered = snapshot.getDeliveredCount();
+        long enclosure = snapshot.getEnclosureSize();
+        long inEnclosureByType = 0;
+        long sold = 0;
+        long inFields = 0;
+        long carried = 0;
+        for (int i = 0; i < snapshot.getFieldCount(); i++) {
+            AnimalType type = AnimalType.get(i);
+            int count = snapshot.getFieldAnimalCount(i);
+            int reserved = snapshot.getFieldReservedSpace(i);
+            if (reserved < 0 || count < 0 || count + reserved > type.getCapacity()) {
+                violation("snapshot " + snapshot.getVersion() + ": field " + type + " holds " + count + " with "
+                        + reserved + " reserved, capacity " + type.getCapacity());
+            }
+            long expected = type.getInitialStock() + snapshot.getFieldStockedCount(i)
+                    - snapshot.getFieldSoldCount(i);
+            if (count != expected) {
+                violation("snapshot " + snapshot.getVersion() + ": field " + type + " holds " + count
+                        + " but initial+stocked-sold=" + expected);
+            }
+            long inTransit = snapshot.getInTransitCount(i);
+            if (inTransit < 0 || snapshot.getEnclosureCount(i) < 0) {
+                violation("snapshot " + snapshot.getVersion() + ": " + type + " has " + inTransit
+                        + " in transit and " + snapshot.getEnclosureCount(i) + " in the enclosure");
+            }
+            inEnclosureByType += snapshot.getEnclosureCount(i);
+            sold += snapshot.getFieldSoldCount(i);
+            inFields += count;
+            carried += inTransit;
+        }
+
+        if (enclosure != inEnclosureByType) {
+            violation("snapshot " + snapshot.getVersion() + ": enclosure=" + enclosure + " but per-type counts sum to "
+                    + inEnclosureByType);
+        }
+        if (initialStock + delivered != enclosure + carried + inFields + sold) {
+            violation("snapshot " + snapshot.getVersion() + ": initial+delivered=" + (initialStock + delivered)
+                    + " but enclosure+carried+fields+sold=" + (enclosure + carried + inFields + sold));
+        }
+
+        soldTotal.set(sold);
+        deliveredTotal.set(delivered);
+        enclosureBacklog.set(enclosure);
+        carriedTotal.set(carried);
+    }
+
+    /**
+     * Checks conservation and capacity on a stopped actor farm.
+     * Messages dropped at shutdown leave their animals counted as carried.
+     */
+    private static void verify(ActorFarm farm, long initialStock) {
+        long delivered = farm.getDeliveredCount();
+        long collected = farm.getCollectedCount();
+        long returned = farm.getReturnedCount();
+        long enclosure = farm.getEnclosureSize();
+
+        if (enclosure != delivered + returned - collected) {
+            violation("enclosure=" + enclosure + " but delivered+returned-collected="
+                    + (delivered + returned - collected));
+        }
+
+        long stocked = 0;
+        long sold = 0;
+        long inFields = 0;
+        for (int i = 0; i < farm.getFieldCount(); i++) {
+            AnimalType type = AnimalType.get(i);
+            int count = farm.getFieldAnimalCount(i);
+            int reserved = farm.getFieldReservedSpace(i);
+            long fieldStocked = farm.getFieldStockedCount(i);
+            long fieldSold = farm.getFieldSoldCount(i);
+            if (reserved < 0 || count < 0 || count + reserved > type.getCapacity()) {
+                violation("field " + type + " holds " + count + " with " + reserved + " reserved, capacity "
+                        + type.getCapacity());
+            }
+            long expected = type.getInitialStock() + fieldStocked - fieldSold;
+            if (count != expected) {
+                violation("field " + type + " holds " + count + " but initial+stocked-sold=" + expected);
+            }
+            stocked += fieldStocked;
+            sold += fieldSold;
+            inFields += count;
+        }
+
+        long carried = collected - returned - stocked;
+        if (carried < 0) {
+            violation("farmers carry " + carried + " animals");
+        }
+        if (initialStock + delivered != enclosure + carried + inFields + sold) {
+            violation("initial+delivered=" + (initialStock + delivered) + " but enclosure+carried+fields+sold="
+                    + (enclosure + carried + inFields + sold));
+        }
+        sample(farm);
+    }
+
+    /**
+     * Copies the actor farm's counters for the reporter. Not a consistent
+     * snapshot while the engine runs, but close enough for throughput.
+     */
+    private static void sample(ActorFarm farm) {
+        long stocked = 0;
+        for (int i = 0; i < farm.getFieldCount(); i++) {
+            stocked += farm.getFieldStockedCount(i);
+        }
+        soldTotal.set(farm.getSoldCount());
+        deliveredTotal.set(farm.getDeliveredCount());
+        enclosureBacklog.set(farm.getEnclosureSize());
+        carriedTotal.set(farm.getCollectedCount() - farm.getReturnedCount() - stocked);
+    }
+
+    private static void violation(String message) {
+        if (violations.incrementAndGet() <= MAX_REPORTED_VIOLATIONS) {
+            System.out.println("VIOLATION: " + message);
+        }
+    }
+
+    private static String threadStateSummary() {
+        Map<Thread.State, Integer> states = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            states.merge(thread.getState(), 1, Integer::sum);
+        }
+        return states.toString();
+    }
+
+    /**
+     * Generates a catalogue with random capacities and initial stock so that
+     * full fields and empty fields both occur.
+     */
+    private static void installCatalogue(Map<String, Integer> config, Random random) throws IOException {
+        int minCapacity = config.get("minCapacity");
+        int maxCapacity = Math.max(minCapacity, config.get("maxCapacity"));
+        StringBuilder catalogue = new StringBuilder();
+        for (int i = 0; i < config.get("types"); i++) {
+            int capacity = minCapacity + random.nextInt(maxCapacity - minCapacity + 1);
+            int initialStock = random.nextInt(capacity + 1);
+            catalogue.append("type").append(i).append(' ').append(capacity).append(' ')
+                    .append(initialStock).append(' ').append(config.get("buyers")).append('\n');
+        }
+        AnimalType.loadCatalogue(new StringReader(catalogue.toString()), "generated", maxCapacity);
+    }
+
+    private static Map<String, Integer> parseArgs(String[] args) {
+        Map<String, Integer> config = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            String key = split > 0 ? arg.substring(0, split) : arg;
+            if (key.equals("schedule")) {
+                scheduleSpec = arg.substring(split + 1);
+                continue;
+            }
+            if (!DEFAULTS.containsKey(key)) {
+                System.err.println("Unknown option " + arg + ". Options (with defaults): " + DEFAULTS
+                        + " and schedule=" + scheduleSpec);
+                return null;
+            }
+            try {
+                config.put(key, Integer.parseInt(arg.substring(split + 1)));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid value for " + key + ": " + arg.substring(split + 1));
+                return null;
+            }
+        }
+        if (config.get("types") < 1 || config.get("minTick") < 1) {
+            System.err.println("types and minTick must be at least 1");
+            return null;
+        }
+        if (config.get("premium") < 0 || config.get("economy") < 0
+                || config.get("premium") + config.get("economy") > config.get("buyers")) {
+            System.err.println("premium and economy buyers must be between 0 and buyers in total");
+            return null;
+        }
+        // As in FarmSimulation, the actor engine has no buyer classes and a fixed pool
+        if (config.get("engine") == ENGINE_ACTORS && (config.get("premium") > 0 || config.get("economy") > 0)) {
+            System.err.println("The actor engine serves buyers in arrival order. Using standard buyers only");
+            config.put("premium", 0);
+            config.put("economy", 0);
+        }
+        if (config.get("engine") == ENGINE_ACTORS && config.get("maxFarmers") > 0) {
+            System.err.println("The actor engine runs a fixed farmer pool. Using " + config.get("farmers")
+                    + " farmers");
+            config.put("maxFarmers", 0);
+        }
+        if (!scheduleSpec.startsWith("trace")) {
+            try {
+                DeliverySchedule.parse(scheduleSpec, new Random()); // validate before any thread starts
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Invalid schedule " + scheduleSpec + ": " + e.getMessage());
+                return null;
+            }
+        }
+        return config;
+    }
+}
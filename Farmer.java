@@ -1,4 +1,3 @@
-import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -8,30 +7,75 @@ import java.util.concurrent.ThreadLocalRandom;
  */
 public class Farmer implements Runnable {
 
+    /** How a farmer keeps other farmers from overfilling a field it is stocking. */
+    public enum StockingMode {
+        EXCLUSIVE, // lock the field from setting out until done; buyers wait meanwhile
+        RESERVE // reserve space before setting out; buyers are never blocked
+    }
+
     private final int id;
     private final Farm farm; // Shared resource
     private final TimeManager timeManager; // Shared resource
-    private static final int MAX_ANIMALS = 10;
-    private static final int TRAVEL_TIME = 10;
-    private static final int STOCKING_TIME_PER_ANIMAL = 1;
-    private static final int MIN_TICKS_BEFORE_BREAK = 200;
-    private static final int MAX_TICKS_BEFORE_BREAK = 300;
-    private static final int BREAK_DURATION = 150;
+    private final StockingMode stockingMode;
+    static final int MAX_ANIMALS = 10;
+    static final int STOCKING_TIME_PER_ANIMAL = 1;
+    static final int MIN_TICKS_BEFORE_BREAK = 200;
+    static final int MAX_TICKS_BEFORE_BREAK = 300;
+    static final int BREAK_DURATION = 150;
+    static final int MAX_BREAK_DEFERRAL_TICKS = MAX_TICKS_BEFORE_BREAK; // a deferred break is taken after this anyway
+    static final int FULL_FIELDS_RETRY_TICKS = 10; // back-off when no field had room
+    static final int AT_RISK_SLACK_TICKS = 20; // a buyer is at risk if a direct trip would only just make it
+    static final int STOCKED = Integer.MIN_VALUE; // marks a carried slot as delivered to a field
 
     private long lastBreakTick;
     private int ticksUntilNextBreak;
 
+    // Reused for every trip so collecting and stocking do not allocate
+    private final AnimalBatch collected = new AnimalBatch();
+    private final int[] carried = new int[MAX_ANIMALS]; // handles of the animals on this trip
+    private int carriedCount = 0;
+    private final RoutePlanner planner;
+    private final long[] routeDeadlines = new long[MAX_ANIMALS]; // deadlines of the at-risk route prefix
+
+    // Progress reporting for the Watchdog - written only by this farmer's thread
+    private volatile Thread thread;
+    private volatile String activity = "starting";
+    private volatile long activitySinceTick = 0;
+    private volatile long lastProgressTick = 0;
+    private volatile int currentFieldTypeId = -1; // field this farmer has locked, -1 if none
+    private volatile long idleTicks = 0; // ticks spent waiting for animals, summed over finished waits
+    private volatile long idleSinceTick = -1; // start of the wait in progress, -1 if not waiting
+    private volatile long rescueTrips = 0; // trips reordered for buyers at risk
+
+    // Set by the FarmerPool from other threads
+    private volatile boolean retiring = false;
+    private volatile boolean breaksDeferred = false;
+
     /**
-     * Creates a farmer with specified ID.
+     * Creates a farmer with specified ID that reserves field space.
      * 
      * @param id          Unique farmer ID
      * @param farm        Shared farm instance
      * @param timeManager Shared time manager
      */
     public Farmer(int id, Farm farm, TimeManager timeManager) {
+        this(id, farm, timeManager, StockingMode.RESERVE);
+    }
+
+    /**
+     * Creates a farmer with specified ID.
+     * 
+     * @param id           Unique farmer ID
+     * @param farm         Shared farm instance
+     * @param timeManager  Shared time manager
+     * @param stockingMode How fields are protected while this farmer stocks them
+     */
+    public Farmer(int id, Farm farm, TimeManager timeManager, StockingMode stockingMode) {
         this.id = id;
         this.farm = farm;
         this.timeManager = timeManager;
+        this.stockingMode = stockingMode;
+        this.planner = new RoutePlanner(farm.getLayout());
         this.lastBreakTick = 0;
         // Random break times help prevent farmers from synchronising
         // which could cause monopolisation of resources
@@ -48,23 +92,126 @@ public class Farmer implements Runnable {
         return ThreadLocalRandom.current().nextInt(MIN_TICKS_BEFORE_BREAK, MAX_TICKS_BEFORE_BREAK + 1);
     }
 
+    /**
+     * Records what the farmer is doing now, for the Watchdog.
+     * 
+     * @param newActivity Short activity name
+     */
+    private void setActivity(String newActivity) {
+        activitySinceTick = timeManager.getCurrentTick();
+        activity = newActivity;
+    }
+
+    /**
+     * Restarts the current activity's clock, called by Farm.waitForAnimals
+     * each time the farmer wakes to find the enclosure empty again, so the
+     * Watchdog times how long it has waited since it last could have worked.
+     * Lock-free, as the caller holds the farm monitor.
+     */
+    void stillWaiting() {
+        activitySinceTick = timeManager.peekCurrentTick();
+    }
+
+    /**
+     * Records that the farmer moved animals along.
+     */
+    private void madeProgress() {
+        lastProgressTick = timeManager.getCurrentTick();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public String getActivity() {
+        return activity;
+    }
+
+    public long getActivitySinceTick() {
+        return activitySinceTick;
+    }
+
+    public long getLastProgressTick() {
+        return lastProgressTick;
+    }
+
+    public int getCurrentFieldTypeId() {
+        return currentFieldTypeId;
+    }
+
+    /**
+     * Gets the ticks this farmer has spent waiting for animals, including
+     * a wait still in progress. Sampling it twice gives how idle the farmer
+     * was in between.
+     * 
+     * @param now Current tick
+     * @return Total idle ticks up to now
+     */
+    public long getIdleTicks(long now) {
+        long since = idleSinceTick; // read first, a wait that ends meanwhile is at worst counted twice
+        long total = idleTicks;
+        return since >= 0 ? total + Math.max(0, now - since) : total;
+    }
+
+    /**
+     * Gets the number of trips that went first to fields with buyers at
+     * risk of missing their deadline.
+     * 
+     * @return Rescue trip count
+     */
+    public long getRescueTripCount() {
+        return rescueTrips;
+    }
+
+    /**
+     * Asks the farmer to stop once it is back at the enclosure.
+     * A farmer never retires mid-trip, so the animals it carries are
+     * always stocked or returned first.
+     */
+    public void retire() {
+        retiring = true;
+        farm.wakeFarmers(); // in case it is waiting on an empty enclosure
+    }
+
+    public boolean isRetiring() {
+        return retiring;
+    }
+
+    /**
+     * Puts off breaks while the farm is busy. A break is only put off by
+     * up to MAX_BREAK_DEFERRAL_TICKS, so no farmer works on indefinitely.
+     * 
+     * @param deferred True to put off breaks that fall due
+     */
+    public void deferBreaks(boolean deferred) {
+        breaksDeferred = deferred;
+    }
+
     @Override
     public void run() {
+        thread = Thread.currentThread();
+        lastProgressTick = timeManager.getCurrentTick();
         try {
-            while (!Thread.currentThread().isInterrupted()) {
+            while (!Thread.currentThread().isInterrupted() && !retiring) {
                 long currentTick = timeManager.getCurrentTick();
 
                 // Check if its time for a break
                 // Farmer breaks prevent monopolisation of resources
-                if (currentTick - lastBreakTick >= ticksUntilNextBreak) {
+                long overdue = currentTick - lastBreakTick - ticksUntilNextBreak;
+                if (overdue >= 0 && (!breaksDeferred || overdue >= MAX_BREAK_DEFERRAL_TICKS)) {
                     // Take a break - this releases locks allowing other farmers to work
-                    Logger.logFarmerAction(currentTick, Thread.currentThread().threadId(), id, "started_break", "rest",
+                    Logger.logFarmerAction(currentTick, Thread.currentThread().threadId(), id, "started_break", null,
                             0);
+                    setActivity("on_break");
                     timeManager.waitTicks(BREAK_DURATION);
 
                     // Log the end of break
                     currentTick = timeManager.getCurrentTick();
-                    Logger.logFarmerAction(currentTick, Thread.currentThread().threadId(), id, "finished_break", "rest",
+                    Logger.logFarmerAction(currentTick, Thread.currentThread().threadId(), id, "finished_break", null,
                             0);
 
                     // reset break timer with randomisation to avoid synchronisation
@@ -74,127 +221,249 @@ public class Farmer implements Runnable {
 
                 // Wait for animals in the enclosure - blocking operation
                 long startWaitTick = timeManager.getCurrentTick();
-                farm.waitForAnimals();
+                setActivity("waiting_for_animals");
+                idleSinceTick = startWaitTick;
+                boolean available;
+                try {
+                    available = farm.waitForAnimals(this);
+                } finally {
+                    idleTicks += timeManager.getCurrentTick() - startWaitTick;
+                    idleSinceTick = -1;
+                }
+                if (!available) {
+                    break; // retired while waiting
+                }
 
                 // Collect animals from enclosure (up to MAX_ANIMALS)
                 // Thread-safe operation due to synchronisation in Farm
-                Map<AnimalType, List<Animal>> collectedAnimals = farm.collectAnimalsFromEnclosure(MAX_ANIMALS);
-
-                // Count collected animals
-                int totalCollected = 0;
-                Map<AnimalType, Integer> animalCounts = new HashMap<>();
-                for (Map.Entry<AnimalType, List<Animal>> entry : collectedAnimals.entrySet()) {
-                    int count = entry.getValue().size();
-                    if (count > 0) {
-                        animalCounts.put(entry.getKey(), count);
-                        totalCollected += count;
-                    }
-                }
+                collected.clear();
+                int totalCollected = farm.collectAnimalsFromEnclosure(MAX_ANIMALS, collected, carried,
+                        timeManager.getCurrentTick());
+                carriedCount = totalCollected;
 
                 if (totalCollected == 0) {
                     continue;
                 }
 
+                madeProgress();
+                AnimalTracker tracker = farm.getTracker();
+                long collectedTick = timeManager.getCurrentTick();
+                for (int i = 0; i < carriedCount; i++) {
+                    tracker.collected(carried[i], collectedTick, id);
+                }
+
                 // Log collection
                 long waitedTicks = timeManager.getCurrentTick() - startWaitTick;
                 Logger.logFarmerCollection(timeManager.getCurrentTick(), Thread.currentThread().threadId(), id,
-                        waitedTicks, animalCounts);
+                        waitedTicks, collected);
 
                 // Stock the fields with the collected animals
-                stockFields(collectedAnimals);
+                stockFields(collected);
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        setActivity("retired");
     }
 
     /**
      * Stocks fields with collected animals.
      * Demonstrates complex resource management and coordination.
-     * Uses resource ordering and non-blocking attempts to prevent deadlocks.
+     * Fields are visited in the order of the cheapest planned route through
+     * the farm layout, where carrying more animals makes each leg slower.
+     * In EXCLUSIVE mode only one field is locked at a time, so no circular
+     * wait can occur. In RESERVE mode nothing is locked across the trip; the
+     * farmer only carries on to a field if space could be reserved there.
      * 
-     * @param collectedAnimals Map of animal types to lists of animals to stock
+     * @param animals Batch of animal counts to stock
      * @throws InterruptedException if thread is interrupted while waiting
      */
-    private void stockFields(Map<AnimalType, List<Animal>> collectedAnimals) throws InterruptedException {
-        // Sort by no. of animals to stock most populated fields first
-        // This prevents starvation of fields with many animals
-        List<Map.Entry<AnimalType, List<Animal>>> sortedAnimals = new ArrayList<>(collectedAnimals.entrySet());
-        sortedAnimals.sort((e1, e2) -> Integer.compare(e2.getValue().size(), e1.getValue().size()));
-
-        // Remove empty lists for efficiency
-        sortedAnimals.removeIf(entry -> entry.getValue().isEmpty());
-
-        if (sortedAnimals.isEmpty()) {
+    private void stockFields(AnimalBatch animals) throws InterruptedException {
+        if (animals.total() == 0) {
             return;
         }
 
-        // Track current location for simulation accuracy
-        String currentLocation = "enclosure";
-        int remainingAnimals = 0;
-
-        for (AnimalType type : AnimalType.values()) {
-            remainingAnimals += collectedAnimals.get(type).size();
+        // Plan the trip - weighs distance against dropping heavy loads early,
+        // then serve buyers about to miss their deadline before anything else
+        int[] route = planner.plan(animals);
+        if (prioritiseAtRiskFields(route, animals) > 0) {
+            rescueTrips++;
         }
+        FarmLayout layout = farm.getLayout();
+        AnimalTracker tracker = farm.getTracker();
 
-        for (Map.Entry<AnimalType, List<Animal>> entry : sortedAnimals) {
-            AnimalType type = entry.getKey();
-            List<Animal> animals = entry.getValue();
-
-            if (animals.isEmpty()) {
-                continue;
-            }
+        // Track current location for simulation accuracy
+        int currentLocation = FarmLayout.ENCLOSURE;
+        int remainingAnimals = animals.total();
 
-            Field field = farm.getField(type);
-            int animalsToStock = animals.size();
+        for (int i = 0; i < animals.distinctTypes(); i++) {
+            int typeId = route[i];
+            AnimalType type = AnimalType.get(typeId);
+            Field field = farm.getField(typeId);
+            int animalsToStock = animals.count(typeId);
 
-            // Try to lock the field for stocking - non-blocking to prevent deadlock
-            while (!field.lockForStocking()) {
-                // Small sleep to avoid busy waiting and CPU thrashing
-                Thread.sleep(10);
+            int reservedCount = 0;
+            if (stockingMode == StockingMode.EXCLUSIVE) {
+                // Try to lock the field for stocking - non-blocking to prevent deadlock
+                setActivity("waiting_for_field");
+                currentFieldTypeId = typeId;
+                while (!field.lockForStocking()) {
+                    // Small sleep to avoid busy waiting and CPU thrashing
+                    Thread.sleep(10);
+                }
+            } else {
+                // Claim the space up front - a full field is not worth the walk
+                reservedCount = field.reserveSpace(animalsToStock);
+                if (reservedCount == 0) {
+                    continue; // the animals go back to the enclosure
+                }
+                animalsToStock = reservedCount;
             }
 
+            int stockedCount = 0;
             try {
-                // Calculate and wait for travel time
-                int travelTime = TRAVEL_TIME + remainingAnimals;
+                // Calculate and wait for travel time along the shortest path
+                setActivity("travelling");
+                int travelTime = layout.travelTime(currentLocation, FarmLayout.fieldNode(typeId)) + remainingAnimals;
                 timeManager.waitTicks(travelTime);
 
                 // Log beginning of stocking
                 Logger.logFarmerAction(timeManager.getCurrentTick(), Thread.currentThread().threadId(), id,
-                        "began_stocking_field", type.toString(), animalsToStock);
+                        "began_stocking_field", type, animalsToStock);
 
-                // Stock the field
-                int stockedCount = 0;
-                for (Animal animal : animals) {
+                // Stock the field with every carried animal of this type
+                setActivity("stocking");
+                for (int j = 0; j < carriedCount && stockedCount < animalsToStock; j++) {
+                    int animal = carried[j];
+                    if (animal == STOCKED || tracker.typeOf(animal) != typeId) {
+                        continue;
+                    }
+                    // Recorded before the hand-over so the buyer sees it
+                    tracker.stocked(animal, timeManager.getCurrentTick());
                     // Thread-safe operation due to the synchronisation in Field
-                    if (field.addAnimal(animal)) {
-                        stockedCount++;
-                        // Simulate time to stock each animal
-                        timeManager.waitTicks(STOCKING_TIME_PER_ANIMAL);
-                    } else {
+                    if (stockingMode == StockingMode.RESERVE) {
+                        field.addReservedAnimal(animal); // cannot fail, the space is ours
+                    } else if (!field.addAnimal(animal)) {
+                        tracker.stockFailed(animal);
                         break;// Field is full
                     }
+                    carried[j] = STOCKED;
+                    stockedCount++;
+                    madeProgress();
+                    // Simulate time to stock each animal
+                    timeManager.waitTicks(STOCKING_TIME_PER_ANIMAL);
                 }
 
                 // Log end of stocking
                 Logger.logFarmerAction(timeManager.getCurrentTick(), Thread.currentThread().threadId(), id,
-                        "finished_stocking_field", type.toString(), stockedCount);
+                        "finished_stocking_field", type, stockedCount);
 
                 // Update remaining animals and current location
                 remainingAnimals -= stockedCount;
-                currentLocation = type.toString();
+                currentLocation = FarmLayout.fieldNode(typeId);
             } finally {
-                // Always unlock the field, even if an exception occurs
+                // Always unlock the field or release unused space, even if an exception occurs
                 // This prevents deadlock if there is an error
-                field.unlockStocking();
+                if (stockingMode == StockingMode.EXCLUSIVE) {
+                    field.unlockStocking();
+                    currentFieldTypeId = -1;
+                } else {
+                    field.releaseReservation(reservedCount - stockedCount);
+                }
             }
         }
 
-        // Return to enclosure if were not there already
-        if (!currentLocation.equals("enclosure")) {
-            int returnTime = TRAVEL_TIME + remainingAnimals;
+        // Return to enclosure along the shortest path if were not there already
+        boolean travelled = currentLocation != FarmLayout.ENCLOSURE;
+        if (travelled) {
+            setActivity("returning");
+            int returnTime = layout.travelTime(currentLocation, FarmLayout.ENCLOSURE) + remainingAnimals;
             timeManager.waitTicks(returnTime);
+        }
+
+        // Animals that did not fit go back so they are not lost
+        int leftovers = 0;
+        for (int j = 0; j < carriedCount; j++) {
+            if (carried[j] != STOCKED) {
+                carried[leftovers++] = carried[j];
+            }
+        }
+        farm.returnAnimalsToEnclosure(carried, leftovers);
+        carriedCount = 0;
+
+        if (travelled) {
+            madeProgress();
             Logger.logFarmerReturn(timeManager.getCurrentTick(), Thread.currentThread().threadId(), id);
+        } else {
+            // Every field was full - back off rather than collect the same animals straight away
+            setActivity("waiting_for_space");
+            timeManager.waitTicks(FULL_FIELDS_RETRY_TICKS);
+        }
+    }
+
+    /**
+     * Checks whether a waiting buyer needs a farmer to head for its field now.
+     * 
+     * @param deadline      The buyer's deadline tick, Long.MAX_VALUE if none
+     * @param arrivalTick   When a farmer going straight there would arrive
+     * @return True if arriving any later would risk missing the deadline
+     */
+    static boolean isAtRisk(long deadline, long arrivalTick) {
+        return deadline != Long.MAX_VALUE && deadline <= arrivalTick + AT_RISK_SLACK_TICKS;
+    }
+
+    /**
+     * Gets when a farmer leaving the enclosure now would reach a field if
+     * it went there straight away. Like every leg of a trip, the walk takes
+     * a tick longer per animal carried. Shared by the farm's rescue
+     * collection and the farmer's route ordering so both judge a buyer at
+     * risk the same way.
+     * 
+     * @param layout Farm layout
+     * @param now    Current tick
+     * @param typeId Field to go to
+     * @param load   Animals carried
+     * @return Arrival tick for isAtRisk
+     */
+    static long directArrivalTick(FarmLayout layout, long now, int typeId, int load) {
+        return now + layout.travelTime(FarmLayout.ENCLOSURE, FarmLayout.fieldNode(typeId)) + load;
+    }
+
+    /**
+     * Moves fields with a waiting buyer that would miss its deadline unless
+     * the farmer went there straight away to the front of the route, most
+     * urgent first. The other fields keep their planned order.
+     * 
+     * @param route   Planned route, reordered in place
+     * @param animals The animals being carried
+     * @return Number of at-risk fields now at the front
+     */
+    private int prioritiseAtRiskFields(int[] route, AnimalBatch animals) {
+        long now = timeManager.getCurrentTick();
+        FarmLayout layout = farm.getLayout();
+        int atRisk = 0;
+        for (int i = 0; i < animals.distinctTypes(); i++) {
+            int typeId = route[i];
+            long deadline = farm.getField(typeId).getEarliestDeadline(); // lock-free
+            if (!isAtRisk(deadline, directArrivalTick(layout, now, typeId, animals.total()))) {
+                continue;
+            }
+            // Shift the fields that are not at risk back one place, then
+            // insert into the at-risk prefix by deadline
+            int j = i;
+            while (j > atRisk) {
+                route[j] = route[j - 1];
+                j--;
+            }
+            while (j > 0 && routeDeadlines[j - 1] > deadline) {
+                route[j] = route[j - 1];
+                routeDeadlines[j] = routeDeadlines[j - 1];
+                j--;
+            }
+            route[j] = typeId;
+            routeDeadlines[j] = deadline;
+            atRisk++;
         }
+        return atRisk;
     }
 }
@@ -0,0 +1,299 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Elastic pool of farmer threads.
+ * Every control interval it takes a farm snapshot and measures how much of
+ * the interval the farmers spent waiting for animals, then adds farmers
+ * when animals pile up in the enclosure or buyers starve on empty fields
+ * while their animals sit in the enclosure, and retires farmers when they
+ * were mostly idle.
+ * Under pressure it also defers breaks, which is cheaper than a new thread.
+ *
+ * Scaling only happens after the same signal has been seen for several
+ * intervals in a row, a backlog that is already shrinking does not count,
+ * and the pool grows faster than it shrinks, so it does not flap between
+ * sizes on a bursty delivery schedule.
+ *
+ * A retired farmer finishes its trip first, so it stays in the farmer list
+ * until its thread has exited - the Watchdog keeps watching it and the
+ * animals it carries stay accounted for - but no longer counts towards
+ * the pool size.
+ */
+public class FarmerPool implements Runnable {
+    static final int CONTROL_INTERVAL_TICKS = 20;
+    static final int BACKLOG_PER_FARMER = Farmer.MAX_ANIMALS; // a full load waiting for every farmer
+    static final double IDLE_HIGH = 0.5; // fraction of farmers idle before shrinking
+    static final double IDLE_LOW = 0.25; // fraction of farmers idle below which starved buyers mean too few farmers
+    static final int SCALE_UP_INTERVALS = 2; // intervals of pressure before growing
+    static final int SCALE_DOWN_INTERVALS = 10; // intervals of slack before shrinking
+
+    private final Farm farm; // Shared resource
+    private final TimeManager timeManager; // Shared resource
+    private final Farmer.StockingMode stockingMode;
+    private final int minFarmers;
+    private final int maxFarmers;
+
+    // Running farmers, retiring ones included - iterated by the Watchdog while the pool changes it
+    private final List<Farmer> farmers = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>(); // finished ones are dropped when adding
+
+    // Controller state - only touched by the pool's thread
+    private final FarmSnapshot snapshot;
+    private int pressureIntervals = 0;
+    private int slackIntervals = 0;
+    private int lastBacklog = 0;
+    private int nextId = 1;
+    private final Map<Farmer, Long> lastIdleTicks = new HashMap<>(); // idle ticks at the previous control step
+    private long lastControlTick = -1;
+
+    // Read by reporters
+    private volatile long farmerTicks = 0; // active farmers summed over control intervals
+    private volatile long controlledTicks = 0;
+    private volatile int added = 0;
+    private volatile int retired = 0;
+    private volatile int peakFarmers = 0;
+    private volatile int activeFarmers = 0; // farmers not retiring
+    private volatile long exitedRescueTrips = 0; // of farmers no longer listed
+
+    /**
+     * Creates a pool. No farmer runs until start is called.
+     *
+     * @param farm         Shared farm instance
+     * @param timeManager  Shared time manager
+     * @param stockingMode How the pool's farmers stock fields
+     * @param minFarmers   Fewest farmers to keep
+     * @param maxFarmers   Most farmers to run
+     */
+    public FarmerPool(Farm farm, TimeManager timeManager, Farmer.StockingMode stockingMode, int minFarmers,
+            int maxFarmers) {
+        if (minFarmers < 1 || maxFarmers < minFarmers) {
+            throw new IllegalArgumentException("need 1 <= minFarmers <= maxFarmers, got " + minFarmers + "-"
+                    + maxFarmers);
+        }
+        this.farm = farm;
+        this.timeManager = timeManager;
+        this.stockingMode = stockingMode;
+        this.minFarmers = minFarmers;
+        this.maxFarmers = maxFarmers;
+        this.snapshot = new FarmSnapshot(farm.getFieldCount());
+    }
+
+    /**
+     * Starts the initial farmers. Run the pool on its own thread afterwards
+     * to let it scale.
+     *
+     * @param initialFarmers Farmers to start with, clamped to the bounds
+     */
+    public void start(int initialFarmers) {
+        addFarmers(Math.max(minFarmers, Math.min(maxFarmers, initialFarmers)));
+    }
+
+    /**
+     * Gets the running farmers, including retiring ones still finishing a
+     * trip. The list is safe to iterate while the pool changes it.
+     *
+     * @return Live list of running farmers
+     */
+    public List<Farmer> getFarmers() {
+        return farmers;
+    }
+
+    /**
+     * Gets the pool size - the running farmers that are not retiring.
+     *
+     * @return Active farmer count
+     */
+    public int getFarmerCount() {
+        return activeFarmers;
+    }
+
+    /**
+     * Gets the rescue trips of every farmer the pool has run, including
+     * farmers that have since retired and exited.
+     *
+     * @return Rescue trip count
+     */
+    public long getRescueTripCount() {
+        long total = exitedRescueTrips;
+        for (Farmer farmer : farmers) {
+            total += farmer.getRescueTripCount();
+        }
+        return total;
+    }
+
+    public int getAddedCount() {
+        return added;
+    }
+
+    public int getRetiredCount() {
+        return retired;
+    }
+
+    public int getPeakFarmerCount() {
+        return peakFarmers;
+    }
+
+    /**
+     * Gets the average number of active farmers since the pool started.
+     *
+     * @return Average pool size
+     */
+    public double getAverageFarmerCount() {
+        long ticks = controlledTicks;
+        return ticks > 0 ? (double) farmerTicks / ticks : activeFarmers;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                timeManager.waitTicks(CONTROL_INTERVAL_TICKS);
+                control();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs one control step.
+     */
+    void control() {
+        dropExitedFarmers();
+        int active = activeFarmers;
+        farmerTicks += (long) active * CONTROL_INTERVAL_TICKS;
+        controlledTicks += CONTROL_INTERVAL_TICKS;
+
+        farm.snapshot(snapshot);
+        int backlog = snapshot.getEnclosureSize();
+        // Buyers on an empty field whose animals are already in the enclosure -
+        // a farmer short, not a delivery short
+        int starvedBuyers = 0;
+        for (int i = 0; i < snapshot.getFieldCount(); i++) {
+            if (snapshot.getFieldAnimalCount(i) == 0 && snapshot.getEnclosureCount(i) > 0) {
+                starvedBuyers += snapshot.getFieldWaitingBuyers(i);
+            }
+        }
+        double idleFraction = sampleIdleFraction();
+
+        // A backlog the farmers are already working down is a burst, not a shortage
+        boolean backlogged = backlog > BACKLOG_PER_FARMER * active && backlog >= lastBacklog;
+        lastBacklog = backlog;
+        boolean pressure = backlogged || (starvedBuyers > 0 && idleFraction < IDLE_LOW);
+        boolean slack = !pressure && starvedBuyers == 0 && backlog <= BACKLOG_PER_FARMER && idleFraction > IDLE_HIGH;
+        pressureIntervals = pressure ? pressureIntervals + 1 : 0;
+        slackIntervals = slack ? slackIntervals + 1 : 0;
+
+        // Defer breaks straight away - it costs nothing if the pressure passes
+        for (Farmer farmer : farmers) {
+            if (!farmer.isRetiring()) {
+                farmer.deferBreaks(pressure);
+            }
+        }
+
+        if (pressureIntervals >= SCALE_UP_INTERVALS && active < maxFarmers) {
+            int count = Math.min(maxFarmers - active, Math.max(1, active / 4));
+            addFarmers(count);
+            added += count;
+            pressureIntervals = 0;
+        } else if (slackIntervals >= SCALE_DOWN_INTERVALS && active > minFarmers) {
+            retireFarmers(Math.min(active - minFarmers, Math.max(1, active / 10)));
+            slackIntervals = 0;
+        }
+    }
+
+    /**
+     * Stops every farmer, retiring or not, and waits for their threads.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+    }
+
+    /**
+     * Measures the share of the last interval the active farmers spent
+     * waiting for animals, from the change in each one's idle ticks.
+     * A farmer that joined during the interval counts from when it joined.
+     *
+     * @return Idle fraction between 0 and 1, 1 if there are no active farmers
+     */
+    private double sampleIdleFraction() {
+        long now = timeManager.peekCurrentTick();
+        long interval = lastControlTick >= 0 ? now - lastControlTick : CONTROL_INTERVAL_TICKS;
+        lastControlTick = now;
+        long idle = 0;
+        int sampled = 0;
+        for (Farmer farmer : farmers) {
+            long idleTicks = farmer.getIdleTicks(now);
+            Long previous = lastIdleTicks.put(farmer, idleTicks);
+            if (!farmer.isRetiring()) {
+                idle += idleTicks - (previous != null ? previous : 0);
+                sampled++;
+            }
+        }
+        if (sampled == 0 || interval <= 0) {
+            return 1.0;
+        }
+        return Math.min(1.0, Math.max(0.0, (double) idle / (sampled * interval)));
+    }
+
+    /**
+     * Drops retired farmers whose thread has exited, keeping their totals.
+     */
+    private void dropExitedFarmers() {
+        for (Farmer farmer : farmers) {
+            if (farmer.isRetiring() && farmer.getActivity().equals("retired")) {
+                exitedRescueTrips += farmer.getRescueTripCount(); // before removal, so reporters never miss it
+                farmers.remove(farmer);
+                lastIdleTicks.remove(farmer);
+            }
+        }
+    }
+
+    private void addFarmers(int count) {
+        threads.removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+        for (int i = 0; i < count; i++) {
+            Farmer farmer = new Farmer(nextId, farm, timeManager, stockingMode);
+            Thread thread = new Thread(farmer, "Farmer-" + nextId);
+            nextId++;
+            farmers.add(farmer);
+            threads.add(thread);
+            activeFarmers++;
+            thread.start();
+            Logger.logFarmerAction(timeManager.getCurrentTick(), Thread.currentThread().threadId(), farmer.getId(),
+                    "joined_pool", null, activeFarmers);
+        }
+        peakFarmers = Math.max(peakFarmers, activeFarmers);
+    }
+
+    // Idle farmers first, they stop straight away; the rest finish their trip.
+    // Both stay listed until dropExitedFarmers sees their thread has exited
+    private void retireFarmers(int count) {
+        int toRetire = count;
+        for (int pass = 0; pass < 2 && toRetire > 0; pass++) {
+            for (Farmer farmer : farmers) {
+                if (toRetire == 0) {
+                    break;
+                }
+                if (farmer.isRetiring() || (pass == 0 && !farmer.getActivity().equals("waiting_for_animals"))) {
+                    continue;
+                }
+                farmer.retire();
+                activeFarmers--;
+                toRetire--;
+                Logger.logFarmerAction(timeManager.getCurrentTick(), Thread.currentThread().threadId(), farmer.getId(),
+                        "left_pool", null, activeFarmers);
+            }
+        }
+        retired += count;
+    }
+}
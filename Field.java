@@ -1,21 +1,73 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Represents a field for a specific animal type.
  * Implements monitor pattern for thread-safe access to animals
  * Supports multiple producers (farmers) and consumers (buyers)
+ * Animals are handed directly to waiting buyers by buyer class, then in
+ * arrival order, only the remainder is stored in the field. The earliest
+ * deadline among waiting buyers is published so farmers can come to the
+ * rescue of buyers about to miss their service level.
+ * Farmers either lock the field for the whole stocking visit, or reserve
+ * the space they need and stock without blocking buyers at all. Stored
+ * animals plus reserved space never exceed capacity, so neither way
+ * can overfill the field.
+ * Every change is also stamped on the field's own SnapshotVersion, and
+ * the state a snapshot needs is kept in volatile fields, so Farm.snapshot
+ * can read it without taking this monitor.
  */
 public class Field {
     private final AnimalType animalType;
     
     @GuardedBy("this")
-    private final List<Animal> animals;// protected by intrinsic lock
+    private final IntQueue animals;// animal handles, oldest first - protected by intrinsic lock
     
     private final int capacity;
+
+    private final SnapshotVersion version = new SnapshotVersion(); // per field, so writers on different fields do not contend
+
+    // Written under this monitor, volatile so snapshots can read them without it
+    @GuardedBy("this")
+    private volatile int size; // animals.size()
+    @GuardedBy("this")
+    private volatile int waiting = 0; // buyers in all the waiter queues
+    @GuardedBy("this")
+    private volatile long earliestDeadline = Long.MAX_VALUE; // of the waiting buyers
     
     @GuardedBy("this")
-    private boolean beingStocked = false;// Flag for exclusive access
+    private volatile boolean beingStocked = false;// Flag for exclusive access
+
+    @GuardedBy("this")
+    private volatile int reserved = 0; // space promised to farmers on their way here
+
+    @GuardedBy("this")
+    private volatile long stockingSessions = 0; // times the flag has been taken, lets the Watchdog time each hold
+
+    // Flow counters - handed-over animals count as both stocked and sold
+    @GuardedBy("this")
+    private volatile long stocked = 0;
+    @GuardedBy("this")
+    private volatile long sold = 0;
+
+    // Blocked buyers, one queue per buyer class indexed by ordinal, oldest first
+    @GuardedBy("this")
+    private final Deque<Waiter>[] waiters;
+
+    /**
+     * A buyer blocked in takeAnimal.
+     * Set to served when an animal has been handed to it directly.
+     * Only accessed while holding the owning field's monitor.
+     */
+    private static class Waiter {
+        final long deadlineTick;
+        boolean served = false;
+        int animal; // the animal handed over, valid once served
+
+        Waiter(long deadlineTick) {
+            this.deadlineTick = deadlineTick;
+        }
+    }
     
     /**
      * Creates a field for a specific animal type with initial animals.
@@ -24,15 +76,21 @@ public class Field {
      * @param initialCount Initial number of animals
      * @param capacity max field capacity
      */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array of queues
     public Field(AnimalType animalType, int initialCount, int capacity) {
         this.animalType = animalType;
         this.capacity = capacity;
-        this.animals = new ArrayList<>();
+        this.waiters = new Deque[BuyerClass.values().length];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new ArrayDeque<>();
+        }
+        this.animals = new IntQueue(Math.min(capacity, 1024));
         
-        // Add initial animals
-        for (int i = 0; i < initialCount; i++) {
-            animals.add(new Animal(animalType));
+        // Initial stock is never tracked individually
+        for (int i = 0; i < Math.min(initialCount, capacity); i++) {
+            animals.add(AnimalTracker.untracked(animalType.getId()));
         }
+        size = animals.size();
     }
     
     /**
@@ -47,7 +105,7 @@ public class Field {
     
     /**
      * Gets the current number of animals in the field.
-     * Synchronized to ensure consistent view of animal list.
+     * Synchronized to ensure consistent view of animal count.
      * 
      * @return no. of animals currently in the field
      */
@@ -57,7 +115,7 @@ public class Field {
     
     /**
      * Checks if the field is at maximum capacity.
-     * Synchronised to ensure consistent view of animal list.
+     * Synchronised to ensure consistent view of animal count.
      * 
      * @return True if field is full
      */
@@ -67,7 +125,7 @@ public class Field {
     
     /**
      * Checks if the field is empty.
-     * Synchronized to ensure consistent view of animal list.
+     * Synchronized to ensure consistent view of animal count.
      * 
      * @return True if field is empty
      */
@@ -86,18 +144,23 @@ public class Field {
         if (beingStocked) {
             return false; // Non-blocking - returns immediately if already locked
         }
+        version.beginWrite();
+        stockingSessions++; // before the flag, so a reader that sees the flag sees this hold's number
         beingStocked = true;
+        version.endWrite();
         return true;
     }
     
     /**
-     * unlock the field after stocking and notifies waiting buyers.
+     * unlock the field after stocking and serves waiting buyers from stock.
      * "signal" part of monitor pattern.
      */
     public synchronized void unlockStocking() {
+        version.beginWrite();
         beingStocked = false;
-        // Notify all waiting buyers - prevents starvation
-        notifyAll();
+        // Buyers that queued while the field was locked are served in order
+        serveWaitersFromStock();
+        version.endWrite();
     }
     
     /**
@@ -109,53 +172,312 @@ public class Field {
         return beingStocked;
     }
     
+    /**
+     * Reserves space for animals a farmer is about to bring.
+     * Buyers are not blocked - the reservation only stops other farmers
+     * from claiming the same space.
+     * 
+     * @param wanted Number of animals the farmer carries for this field
+     * @return Number of places reserved, 0 if the field has no free space
+     */
+    public synchronized int reserveSpace(int wanted) {
+        int granted = Math.max(0, Math.min(wanted, capacity - animals.size() - reserved));
+        if (granted > 0) {
+            version.beginWrite();
+            reserved += granted;
+            version.endWrite();
+        }
+        return granted;
+    }
+
+    /**
+     * Gives back reserved space that will not be used.
+     * 
+     * @param count Number of reserved places to release
+     */
+    public synchronized void releaseReservation(int count) {
+        if (count == 0) {
+            return;
+        }
+        version.beginWrite();
+        reserved -= count;
+        version.endWrite();
+    }
+
+    /**
+     * Gets the space currently reserved by farmers.
+     * 
+     * @return Reserved places
+     */
+    public synchronized int getReservedSpace() {
+        return reserved;
+    }
+
+    /**
+     * Identifies the current stocking hold, so a watcher can tell a long
+     * hold from a series of short ones.
+     * Lock-free, so it answers even while the holder is stuck in this monitor.
+     * 
+     * @return Number of the current hold, or 0 if the field is not being stocked
+     */
+    public long getStockingSession() {
+        return beingStocked ? stockingSessions : 0;
+    }
+
+    /**
+     * Gets the number of buyers currently blocked waiting for an animal.
+     * 
+     * Not synchronised, the count is volatile.
+     * 
+     * @return no. of waiting buyers
+     */
+    public int getWaitingBuyers() {
+        return waiting;
+    }
+
+    /**
+     * Gets the tick by which the most urgent waiting buyer should be served.
+     * Not synchronised, so farmers can check every field cheaply while
+     * planning a trip.
+     * 
+     * @return Earliest deadline tick, or Long.MAX_VALUE if no buyer is waiting
+     */
+    public long getEarliestDeadline() {
+        return earliestDeadline;
+    }
+
+    /**
+     * Takes an animal from the field as a standard buyer with no deadline.
+     * 
+     * @return The handle of the animal taken
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    public int takeAnimal() throws InterruptedException {
+        return takeAnimal(BuyerClass.STANDARD, Long.MAX_VALUE);
+    }
+    
     /**
      * Takes an animal from the field, waiting if necessary.
      * "wait" part of monitor pattern.
      * Used by buyers in consumer role.
+     * Buyers that have to wait are queued by class and served in class
+     * order, first-come-first-served within a class, so a newly arriving
+     * buyer can never overtake one of its own class already waiting.
      * 
-     * @return The removed animal
+     * @param buyerClass   The buyer's service class
+     * @param deadlineTick Tick by which the buyer wants to be served. If it is
+     *                     earlier than that of a buyer of the same class already
+     *                     waiting it is raised to match - that buyer is served
+     *                     first anyway - which keeps deadlines in queue order
+     * @return The handle of the animal taken
      * @throws InterruptedException if thread is interrupted while waiting
      */
-    public synchronized Animal takeAnimal() throws InterruptedException {
-        while (isEmpty() || beingStocked) {
-            wait(); // Release lock and wait until notified
+    public synchronized int takeAnimal(BuyerClass buyerClass, long deadlineTick) throws InterruptedException {
+        // Fast path - stock available and nobody queued ahead of us
+        if (waiting == 0 && !isEmpty() && !beingStocked) {
+            version.beginWrite();
+            int animal = animals.remove();
+            size = animals.size();
+            sold++;
+            version.endWrite();
+            return animal;
         }
-        // Critical section - modify shared state
-        Animal animal = animals.remove(0);
-        return animal;
+
+        // Buyers compute their deadline before taking this monitor, so one can
+        // arrive behind a buyer of its class with a later deadline
+        Deque<Waiter> queue = waiters[buyerClass.ordinal()];
+        Waiter last = queue.peekLast();
+        Waiter waiter = new Waiter(last != null ? Math.max(deadlineTick, last.deadlineTick) : deadlineTick);
+        version.beginWrite();
+        queue.addLast(waiter);
+        waiting++;
+        earliestDeadline = Math.min(earliestDeadline, waiter.deadlineTick);
+        version.endWrite();
+        try {
+            while (!waiter.served) {
+                wait(); // Release lock and wait until an animal is handed over
+            }
+        } catch (InterruptedException e) {
+            if (!waiter.served) {
+                version.beginWrite();
+                queue.remove(waiter);
+                waiting--;
+                updateEarliestDeadline();
+                version.endWrite();
+                throw e;
+            }
+            // Animal was already handed over - complete the purchase so it is not lost
+            Thread.currentThread().interrupt();
+        }
+        return waiter.animal;
     }
     
     /**
-     * Adds an animal to the field if capacity allows and type matches
+     * Adds an animal of this field's type.
+     * If buyers are waiting the animal is handed straight to the first in line,
+     * otherwise it is stored if capacity allows.
      * Thread-safe method implementing guarded action
      * Used by farmers in producer role
      * 
-     * @param animal The animal to add
-     * @return True if animal was added, false otherwise
+     * @param animal The handle of the animal to add
+     * @return True if animal was handed over or added, false otherwise
      */
-    public synchronized boolean addAnimal(Animal animal) {
-        // Guard condition checks
-        if (animal.getType() != this.animalType || isFull()) {
+    public synchronized boolean addAnimal(int animal) {
+        // Rendezvous - a waiting buyer takes the animal without it entering the field
+        if (waiting > 0) {
+            version.beginWrite();
+            Waiter waiter = nextWaiter();
+            waiter.animal = animal;
+            waiter.served = true;
+            stocked++;
+            sold++;
+            version.endWrite();
+            // Signal part of monitor pattern - only the served buyer proceeds
+            notifyAll();
+            return true;
+        }
+        // Guard condition checks - reserved space belongs to other farmers
+        if (animals.size() + reserved >= capacity) {
             return false;
         }
         // Critical section - modify shared state
+        version.beginWrite();
         animals.add(animal);
-        // Notify waiting buyers - signal part of monitor pattern
-        notifyAll();
+        size = animals.size();
+        stocked++;
+        version.endWrite();
         return true;
     }
+
+    /**
+     * Adds an animal into space reserved with reserveSpace.
+     * Always succeeds, since the space was set aside in advance.
+     * Thread-safe method used by farmers in producer role
+     * 
+     * @param animal The handle of the animal to add
+     */
+    public synchronized void addReservedAnimal(int animal) {
+        // One write, so a snapshot never sees the space released but the animal not yet added
+        version.beginWrite();
+        try {
+            reserved--;
+            if (!addAnimal(animal)) {
+                throw new IllegalStateException("no room for reserved animal in " + this);
+            }
+        } finally {
+            version.endWrite();
+        }
+    }
+
+    /**
+     * Removes the first waiter in line - highest class, then oldest.
+     * Caller must hold the monitor, be inside a version write and have
+     * checked that a buyer is waiting.
+     */
+    private Waiter nextWaiter() {
+        for (Deque<Waiter> queue : waiters) {
+            if (!queue.isEmpty()) {
+                Waiter waiter = queue.removeFirst();
+                waiting--;
+                updateEarliestDeadline();
+                return waiter;
+            }
+        }
+        throw new IllegalStateException("no buyer waiting in " + this);
+    }
+
+    /**
+     * Recomputes the earliest deadline. takeAnimal keeps deadlines growing
+     * along each queue, so only the heads need looking at.
+     * Caller must hold the monitor.
+     */
+    private void updateEarliestDeadline() {
+        long earliest = Long.MAX_VALUE;
+        for (Deque<Waiter> queue : waiters) {
+            if (!queue.isEmpty()) {
+                earliest = Math.min(earliest, queue.peekFirst().deadlineTick);
+            }
+        }
+        earliestDeadline = earliest;
+    }
+
+    /**
+     * Hands stored animals to waiting buyers, first in line first.
+     * Caller must hold the monitor and be inside a version write.
+     */
+    private void serveWaitersFromStock() {
+        boolean servedAny = false;
+        while (waiting > 0 && !animals.isEmpty() && !beingStocked) {
+            Waiter waiter = nextWaiter();
+            waiter.animal = animals.remove();
+            waiter.served = true;
+            sold++;
+            servedAny = true;
+        }
+        if (servedAny) {
+            size = animals.size();
+            notifyAll();
+        }
+    }
     
+    /**
+     * Gets the total number of animals farmers have stocked or handed over here.
+     * 
+     * @return Stocked animal count
+     */
+    public synchronized long getStockedCount() {
+        return stocked;
+    }
+
+    /**
+     * Gets the total number of animals sold to buyers from this field.
+     * 
+     * @return Sold animal count
+     */
+    public synchronized long getSoldCount() {
+        return sold;
+    }
+
+    /**
+     * Gets the max capacity of the field.
+     * Thread-safe because capacity is final.
+     * 
+     * @return Field capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
     /**
      * Gets the number of spaces available in the field.
-     * Synchronised to ensure consistent view of animal list.
+     * Synchronised to ensure consistent view of animal count.
      * 
-     * @return Available spaces in the field
+     * @return Available spaces in the field, not counting reserved space
      */
     public synchronized int getAvailableSpace() {
-        return capacity - animals.size();
+        return capacity - animals.size() - reserved;
     }
     
+    SnapshotVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * Copies this field's state into a snapshot without taking the monitor.
+     * Only consistent if this field's version validates afterwards.
+     * 
+     * @param snapshot Snapshot to fill
+     */
+    void readInto(FarmSnapshot snapshot) {
+        int i = animalType.getId();
+        snapshot.fieldCount[i] = size;
+        snapshot.reserved[i] = reserved;
+        snapshot.beingStocked[i] = beingStocked;
+        snapshot.waitingBuyers[i] = waiting;
+        snapshot.stocked[i] = stocked;
+        snapshot.sold[i] = sold;
+    }
+
     @Override
     public String toString() {
         return animalType.toString();
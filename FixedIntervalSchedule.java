@@ -0,0 +1,28 @@
+import java.util.Random;
+
+/**
+ * Delivers the same number of animals at a fixed interval.
+ * With the defaults this is the original 10 animals every 100 ticks.
+ */
+public class FixedIntervalSchedule extends DeliverySchedule {
+    private final int interval;
+    private final int animals;
+    private final Random random;
+
+    /**
+     * @param interval Ticks between deliveries
+     * @param animals  Animals per delivery
+     * @param random   Source of randomness for animal types
+     */
+    public FixedIntervalSchedule(int interval, int animals, Random random) {
+        this.interval = interval;
+        this.animals = animals;
+        this.random = random;
+    }
+
+    @Override
+    public long next(long previousTick, AnimalBatch delivery) {
+        randomAnimals(delivery, animals, random);
+        return previousTick + interval;
+    }
+}
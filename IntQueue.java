@@ -0,0 +1,96 @@
+/**
+ * Growable FIFO ring buffer of primitive ints.
+ * Avoids boxing and the O(n) shifting of ArrayList.remove(0).
+ * Not thread-safe - callers must hold the owning monitor.
+ */
+public class IntQueue {
+    private int[] elements;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param initialCapacity initial buffer size
+     */
+    public IntQueue(int initialCapacity) {
+        this.elements = new int[Math.max(initialCapacity, 8)];
+    }
+
+    /**
+     * Adds a value to the tail of the queue, growing the buffer if needed.
+     *
+     * @param value the value to add
+     */
+    public void add(int value) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) % elements.length] = value;
+        size++;
+    }
+
+    /**
+     * Removes and returns the value at the head of the queue.
+     *
+     * @return the head value
+     * @throws IllegalStateException if the queue is empty
+     */
+    public int remove() {
+        if (size == 0) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        int value = elements[head];
+        head = (head + 1) % elements.length;
+        size--;
+        return value;
+    }
+
+    /**
+     * Gets a value without removing it.
+     *
+     * @param index position from the head, 0 is the oldest
+     * @return the value
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        return elements[(head + index) % elements.length];
+    }
+
+    /**
+     * Removes a value from anywhere in the queue, keeping the others in order.
+     * Costs O(index), so is meant for positions near the head.
+     *
+     * @param index position from the head, 0 is the oldest
+     * @return the removed value
+     */
+    public int removeAt(int index) {
+        int value = get(index);
+        // Close the gap by moving the older values one place towards the tail
+        for (int i = index; i > 0; i--) {
+            elements[(head + i) % elements.length] = elements[(head + i - 1) % elements.length];
+        }
+        head = (head + 1) % elements.length;
+        size--;
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        int[] larger = new int[elements.length * 2];
+        for (int i = 0; i < size; i++) {
+            larger[i] = elements[(head + i) % elements.length];
+        }
+        elements = larger;
+        head = 0;
+    }
+}
@@ -1,118 +1,276 @@
-import java.util.Map;
+import java.io.IOException;
 
 /**
- * Thread-safe logging utility 
+ * Thread-safe logging utility
  * Provides synchronised methods to ensure log messages do not write over each other.
+ * Events are printed as text lines, or written as fixed-width records to a
+ * BinaryEventLog when one is installed.
  */
 public class Logger {
     // Lock object for synchronising console output across threads
     @GuardedBy("lock")
     private static final Object lock = new Object();
-    
+
+    // Volatile so that switching logging off is seen by all threads
+    private static volatile boolean enabled = true;
+
+    // Volatile so that installing the binary sink is seen by all threads
+    private static volatile BinaryEventLog binaryLog = null;
+
+    /**
+     * Turns event logging on or off, e.g. for headless stress runs.
+     *
+     * @param on True to print events
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Sends events to a binary log instead of the console.
+     *
+     * @param log The binary log, or null to go back to text
+     */
+    public static void setBinaryLog(BinaryEventLog log) {
+        binaryLog = log;
+    }
+
+    /**
+     * Stops logging and closes the binary log, if one is installed, e.g. from
+     * a shutdown hook. The log is swapped out under the log lock, so no thread
+     * is part way through an event when it is closed, and events logged
+     * afterwards are dropped instead of reaching the closed log.
+     *
+     * @throws IOException if the last block cannot be written
+     */
+    public static void closeBinaryLog() throws IOException {
+        synchronized (lock) {
+            enabled = false;
+            BinaryEventLog binary = binaryLog;
+            binaryLog = null;
+            if (binary != null) {
+                binary.close();
+            }
+        }
+    }
+
     /**
      * Logs a message to console in a thread-safe manner.
      * Uses intrinsic lock to prevent output interleaving from multiple threads.
-     * 
+     *
      * @param message The message to log
      */
     public static void log(String message) {
+        if (!enabled) {
+            return;
+        }
         synchronized (lock) { // Critical section to ensure atomic console writes
             System.out.println(message);
         }
     }
-    
+
     /**
      * Logs the delivery of animals to the farm.
-     * 
+     *
      * @param tick the current simulation tick
      * @param threadId the ID of the thread performing the action
-     * @param animalCounts A map of animal types and their respective counts
+     * @param animalCounts The animal types and their respective counts
      */
-    public static void logDelivery(long tick, long threadId, Map<AnimalType, Integer> animalCounts) {
-        String message = tick + " " + threadId + " animal_delivery : ";
-        
-        boolean first = true;
-        for (Map.Entry<AnimalType, Integer> entry : animalCounts.entrySet()) {
-            AnimalType type = entry.getKey();
-            int count = entry.getValue();
-            
-            if (count > 0) {
-                if (!first) {
-                    message += " ";
-                }
-                message += type.toString() + "=" + count;
-                first = false;
-            }
+    public static void logDelivery(long tick, long threadId, AnimalBatch animalCounts) {
+        if (!enabled) {
+            return;
         }
-        
-        log(message);
+        BinaryEventLog binary = binaryLog;
+        if (binary != null) {
+            writeCounts(binary, tick, threadId, BinaryEventLog.Kind.DELIVERY, 0, 0, animalCounts);
+            return;
+        }
+        log(formatDelivery(tick, threadId, animalCounts));
     }
-    
+
     /**
      * Logs the collection of animals by a farmer.
-     * 
+     *
      * @param tick The current simulation tick
      * @param threadId The ID of the thread performing the action
      * @param farmerId The ID of the farmer
      * @param waitedTicks The number of ticks the farmer waited
-     * @param animalCounts A map of animal types and their respective counts
+     * @param animalCounts The animal types and their respective counts
      */
-    public static void logFarmerCollection(long tick, long threadId, int farmerId, long waitedTicks, Map<AnimalType, Integer> animalCounts) {
-        String message = tick + " " + threadId + " farmer=" + farmerId + " collected_animals waited_ticks=" + waitedTicks + ": ";
-        
-        boolean first = true;
-        for (Map.Entry<AnimalType, Integer> entry : animalCounts.entrySet()) {
-            if (entry.getValue() > 0) {
-                if (!first) {
-                    message += " ";
-                }
-                message += entry.getKey().toString() + "=" + entry.getValue();
-                first = false;
-            }
+    public static void logFarmerCollection(long tick, long threadId, int farmerId, long waitedTicks, AnimalBatch animalCounts) {
+        if (!enabled) {
+            return;
         }
-        
-        log(message);
+        BinaryEventLog binary = binaryLog;
+        if (binary != null) {
+            writeCounts(binary, tick, threadId, BinaryEventLog.Kind.FARMER_COLLECTION, farmerId, waitedTicks,
+                    animalCounts);
+            return;
+        }
+        log(formatFarmerCollection(tick, threadId, farmerId, waitedTicks, animalCounts));
     }
-    
+
     /**
      * Logs the collection of items by a buyer from a field.
-     * 
+     *
      * @param tick The current simulation tick
      * @param threadId The ID of the thread performing the action
      * @param buyerId The ID of the buyer
      * @param fieldType The type of field from which items are collected
      * @param waitedTicks The number of ticks the buyer waited
      */
-    public static void logBuyerCollection(long tick, long threadId, int buyerId, String fieldType, long waitedTicks) {
-        log(tick + " " + threadId + " buyer=" + buyerId + 
-            " collected_from_field=" + fieldType + 
-            " waited_ticks=" + waitedTicks);
+    public static void logBuyerCollection(long tick, long threadId, int buyerId, AnimalType fieldType, long waitedTicks) {
+        if (!enabled) {
+            return;
+        }
+        BinaryEventLog binary = binaryLog;
+        if (binary != null) {
+            write(binary, tick, threadId, BinaryEventLog.Kind.BUYER_COLLECTION, buyerId, fieldType.getId(), 1,
+                    waitedTicks);
+            return;
+        }
+        log(formatBuyerCollection(tick, threadId, buyerId, fieldType, waitedTicks));
     }
-    
+
     /**
      * Logs an action performed by a farmer.
-     * 
+     *
      * @param tick The current simulation tick
      * @param threadId The ID of the thread performing the action
      * @param farmerId The ID of the farmer
      * @param action The action performed by the farmer
-     * @param fieldType The type of field involved in the action
+     * @param fieldType The type of field involved in the action, null for breaks
      * @param count The number of items involved in the action
      */
-    public static void logFarmerAction(long tick, long threadId, int farmerId, String action, String fieldType, int count) {
-        log(tick + " " + threadId + " farmer=" + farmerId + 
-            " " + action + " : " + fieldType + "=" + count);
+    public static void logFarmerAction(long tick, long threadId, int farmerId, String action, AnimalType fieldType, int count) {
+        if (!enabled) {
+            return;
+        }
+        BinaryEventLog binary = binaryLog;
+        if (binary != null) {
+            write(binary, tick, threadId, BinaryEventLog.Kind.forName(action), farmerId,
+                    fieldType == null ? BinaryEventLog.NO_TYPE : fieldType.getId(), count, 0);
+            return;
+        }
+        log(formatFarmerAction(tick, threadId, farmerId, action, fieldType, count));
     }
-    
+
     /**
      * Logs the return of a farmer to the enclosure.
-     * 
+     *
      * @param tick The current simulation tick
      * @param threadId The ID of the thread performing the action
      * @param farmerId The ID of the farmer
      */
     public static void logFarmerReturn(long tick, long threadId, int farmerId) {
-        log(tick + " " + threadId + " farmer=" + farmerId + " returned_to_enclosure");
+        if (!enabled) {
+            return;
+        }
+        BinaryEventLog binary = binaryLog;
+        if (binary != null) {
+            write(binary, tick, threadId, BinaryEventLog.Kind.FARMER_RETURN, farmerId, BinaryEventLog.NO_TYPE, 0, 0);
+            return;
+        }
+        log(formatFarmerReturn(tick, threadId, farmerId));
     }
-}
 
+    // Text formats - shared with EventLogQuery so decoded logs match console output
+
+    static String formatDelivery(long tick, long threadId, AnimalBatch animalCounts) {
+        StringBuilder message = new StringBuilder();
+        message.append(tick).append(' ').append(threadId).append(" animal_delivery : ");
+        appendCounts(message, animalCounts);
+        return message.toString();
+    }
+
+    static String formatFarmerCollection(long tick, long threadId, int farmerId, long waitedTicks, AnimalBatch animalCounts) {
+        StringBuilder message = new StringBuilder();
+        message.append(tick).append(' ').append(threadId).append(" farmer=").append(farmerId)
+                .append(" collected_animals waited_ticks=").append(waitedTicks).append(": ");
+        appendCounts(message, animalCounts);
+        return message.toString();
+    }
+
+    static String formatBuyerCollection(long tick, long threadId, int buyerId, AnimalType fieldType, long waitedTicks) {
+        return tick + " " + threadId + " buyer=" + buyerId +
+            " collected_from_field=" + fieldType +
+            " waited_ticks=" + waitedTicks;
+    }
+
+    static String formatFarmerAction(long tick, long threadId, int farmerId, String action, AnimalType fieldType, int count) {
+        return tick + " " + threadId + " farmer=" + farmerId +
+            " " + action + " : " + (fieldType == null ? "rest" : fieldType.toString()) + "=" + count;
+    }
+
+    static String formatFarmerReturn(long tick, long threadId, int farmerId) {
+        return tick + " " + threadId + " farmer=" + farmerId + " returned_to_enclosure";
+    }
+
+    /**
+     * Appends "type=count" pairs for every type present in the batch.
+     * Only visits the types in the batch, not the whole catalogue.
+     *
+     * @param message The message being built
+     * @param animalCounts The animal types and their respective counts
+     */
+    private static void appendCounts(StringBuilder message, AnimalBatch animalCounts) {
+        for (int i = 0; i < animalCounts.distinctTypes(); i++) {
+            int typeId = animalCounts.typeAt(i);
+            if (i > 0) {
+                message.append(' ');
+            }
+            message.append(AnimalType.get(typeId)).append('=').append(animalCounts.count(typeId));
+        }
+    }
+
+    /**
+     * Writes one record per type in the batch, all under the log lock so
+     * the records of one event stay together.
+     */
+    private static void writeCounts(BinaryEventLog binary, long tick, long threadId, BinaryEventLog.Kind kind,
+            int actorId, long waitedTicks, AnimalBatch animalCounts) {
+        synchronized (lock) {
+            if (binary != binaryLog) {
+                return; // closed or failed since the caller looked
+            }
+            try {
+                if (animalCounts.distinctTypes() == 0) {
+                    binary.write(tick, threadId, kind, true, actorId, BinaryEventLog.NO_TYPE, 0, waitedTicks);
+                }
+                for (int i = 0; i < animalCounts.distinctTypes(); i++) {
+                    int typeId = animalCounts.typeAt(i);
+                    binary.write(tick, threadId, kind, i == 0, actorId, typeId, animalCounts.count(typeId),
+                            waitedTicks);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                binaryLogFailed(e);
+            }
+        }
+    }
+
+    private static void write(BinaryEventLog binary, long tick, long threadId, BinaryEventLog.Kind kind, int actorId,
+            int typeId, int count, long waitedTicks) {
+        synchronized (lock) {
+            if (binary != binaryLog) {
+                return; // closed or failed since the caller looked
+            }
+            try {
+                binary.write(tick, threadId, kind, true, actorId, typeId, count, waitedTicks);
+            } catch (IOException | IllegalArgumentException e) {
+                binaryLogFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Falls back to text logging so events are not silently lost, e.g. when
+     * the disk fills or an id no longer fits a record.
+     * Caller holds the log lock.
+     */
+    private static void binaryLogFailed(Exception e) {
+        if (binaryLog != null) {
+            binaryLog = null;
+            System.err.println("Binary event log failed (" + e.getMessage() + "). Falling back to text log.");
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.Random;
+
+/**
+ * Deliveries arrive as a Poisson process - the gaps between them are
+ * exponentially distributed, so arrivals are independent and sometimes
+ * bunch together, at the same long-run rate as a fixed interval.
+ */
+public class PoissonSchedule extends DeliverySchedule {
+    private final double meanInterval;
+    private final int animals;
+    private final Random random;
+
+    /**
+     * @param meanInterval Mean ticks between deliveries
+     * @param animals      Animals per delivery
+     * @param random       Source of randomness
+     */
+    public PoissonSchedule(int meanInterval, int animals, Random random) {
+        this.meanInterval = meanInterval;
+        this.animals = animals;
+        this.random = random;
+    }
+
+    @Override
+    public long next(long previousTick, AnimalBatch delivery) {
+        randomAnimals(delivery, animals, random);
+        // Inverse transform sampling; ticks are whole, so round to the nearest
+        double gap = -meanInterval * Math.log(1.0 - random.nextDouble());
+        return previousTick + Math.round(gap);
+    }
+}
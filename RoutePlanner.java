@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * Plans the order in which a farmer visits fields on a stocking trip.
+ * A leg costs its shortest-path travel time plus the number of animals
+ * still being carried, so the planner trades distance against dropping
+ * heavy loads early. Trips are solved exactly with a dynamic programme
+ * over subsets (Held-Karp) - a trip visits at most one field per animal
+ * carried, so there are never more than Farmer.MAX_ANIMALS fields.
+ * Not thread-safe - each farmer owns its planner and its scratch buffers.
+ */
+public class RoutePlanner {
+    // Most fields on one trip - 2^10 subsets x 10 end points is a small table
+    static final int MAX_FIELDS = Farmer.MAX_ANIMALS;
+
+    private final FarmLayout layout;
+    private final int[] route;
+    private long[] cost = new long[0]; // cost[subset * k + last]
+    private int[] previous = new int[0]; // predecessor of last in the best route to subset
+    private int[] loadAfter = new int[0]; // animals still carried after visiting subset
+
+    /**
+     * Creates a planner for the given layout.
+     *
+     * @param layout Shared farm layout
+     */
+    public RoutePlanner(FarmLayout layout) {
+        this.layout = layout;
+        this.route = new int[MAX_FIELDS];
+    }
+
+    /**
+     * Plans a round trip from the enclosure through every field in the batch.
+     *
+     * @param animals Batch of animal counts to stock
+     * @return Type ids in visiting order, valid for animals.distinctTypes() entries
+     *         until the next call
+     * @throws IllegalArgumentException if the batch has more than MAX_FIELDS types
+     */
+    public int[] plan(AnimalBatch animals) {
+        int k = animals.distinctTypes();
+        if (k > MAX_FIELDS) {
+            throw new IllegalArgumentException("a trip visits at most " + MAX_FIELDS + " fields, got " + k);
+        }
+        planExact(animals, k);
+        return route;
+    }
+
+    private void planExact(AnimalBatch animals, int k) {
+        int subsets = 1 << k;
+        if (cost.length < subsets * k) {
+            cost = new long[subsets * k];
+            previous = new int[subsets * k];
+            loadAfter = new int[subsets];
+        }
+
+        // Remaining load after each subset of fields has been stocked
+        loadAfter[0] = animals.total();
+        for (int subset = 1; subset < subsets; subset++) {
+            int lowest = Integer.numberOfTrailingZeros(subset);
+            loadAfter[subset] = loadAfter[subset & (subset - 1)] - animals.count(animals.typeAt(lowest));
+        }
+
+        Arrays.fill(cost, 0, subsets * k, Long.MAX_VALUE);
+        for (int v = 0; v < k; v++) {
+            cost[(1 << v) * k + v] = legCost(FarmLayout.ENCLOSURE, animals.typeAt(v), loadAfter[0]);
+        }
+
+        for (int subset = 1; subset < subsets; subset++) {
+            for (int last = 0; last < k; last++) {
+                long current = cost[subset * k + last];
+                if (current == Long.MAX_VALUE) {
+                    continue;
+                }
+                int from = FarmLayout.fieldNode(animals.typeAt(last));
+                for (int next = 0; next < k; next++) {
+                    if ((subset & (1 << next)) != 0) {
+                        continue;
+                    }
+                    int extended = subset | (1 << next);
+                    long candidate = current + legCost(from, animals.typeAt(next), loadAfter[subset]);
+                    if (candidate < cost[extended * k + next]) {
+                        cost[extended * k + next] = candidate;
+                        previous[extended * k + next] = last;
+                    }
+                }
+            }
+        }
+
+        // Close the loop back to the enclosure and pick the cheapest end point
+        int full = subsets - 1;
+        int last = 0;
+        long best = Long.MAX_VALUE;
+        for (int v = 0; v < k; v++) {
+            long total = cost[full * k + v]
+                    + layout.travelTime(FarmLayout.fieldNode(animals.typeAt(v)), FarmLayout.ENCLOSURE);
+            if (total < best) {
+                best = total;
+                last = v;
+            }
+        }
+
+        // Walk the predecessors backwards to recover the visiting order
+        int subset = full;
+        for (int position = k - 1; position >= 0; position--) {
+            route[position] = animals.typeAt(last);
+            int before = previous[subset * k + last];
+            subset &= ~(1 << last);
+            last = before;
+        }
+    }
+
+    private int legCost(int from, int typeId, int load) {
+        return layout.travelTime(from, FarmLayout.fieldNode(typeId)) + load;
+    }
+}
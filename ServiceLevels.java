@@ -0,0 +1,80 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Buyer waits per service class, against each class's maximum acceptable
+ * wait. Keeps a wait histogram per class so tail latency can be tuned,
+ * not just the average.
+ * Thread-safe - buyers record into it concurrently.
+ */
+public class ServiceLevels {
+    private final TickHistogram[] waits = new TickHistogram[BuyerClass.values().length];
+    private final AtomicLongArray met = new AtomicLongArray(BuyerClass.values().length);
+
+    public ServiceLevels() {
+        for (int i = 0; i < waits.length; i++) {
+            waits[i] = new TickHistogram();
+        }
+    }
+
+    /**
+     * Records a purchase.
+     *
+     * @param buyerClass  Class of the buyer
+     * @param waitedTicks How long the buyer waited on its field
+     */
+    public void record(BuyerClass buyerClass, long waitedTicks) {
+        waits[buyerClass.ordinal()].record(waitedTicks);
+        if (waitedTicks <= buyerClass.getMaxWaitTicks()) {
+            met.incrementAndGet(buyerClass.ordinal());
+        }
+    }
+
+    public TickHistogram getWaitHistogram(BuyerClass buyerClass) {
+        return waits[buyerClass.ordinal()];
+    }
+
+    /**
+     * Gets the share of purchases served within the class's maximum wait.
+     *
+     * @param buyerClass Class of buyer
+     * @return Attainment between 0 and 1, or 1 if the class made no purchases
+     */
+    public double getAttainment(BuyerClass buyerClass) {
+        long purchases = waits[buyerClass.ordinal()].count();
+        return purchases == 0 ? 1.0 : (double) met.get(buyerClass.ordinal()) / purchases;
+    }
+
+    /**
+     * Formats the attainment of every class that made purchases on one line.
+     *
+     * @return e.g. "premium=99.1% standard=97.4%", empty if nothing was bought
+     */
+    public String summary() {
+        StringBuilder line = new StringBuilder();
+        for (BuyerClass buyerClass : BuyerClass.values()) {
+            if (waits[buyerClass.ordinal()].count() > 0) {
+                line.append(line.length() > 0 ? " " : "").append(buyerClass.name().toLowerCase())
+                        .append(String.format("=%.1f%%", 100 * getAttainment(buyerClass)));
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Prints attainment and wait percentiles for every class that made purchases.
+     *
+     * @param out Where to print
+     */
+    public void printReport(PrintStream out) {
+        out.println("Buyer service levels (waits in ticks):");
+        for (BuyerClass buyerClass : BuyerClass.values()) {
+            TickHistogram histogram = waits[buyerClass.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            out.printf("  %-8s max_wait=%d met=%.1f%% %s%n", buyerClass.name().toLowerCase(),
+                    buyerClass.getMaxWaitTicks(), 100 * getAttainment(buyerClass), histogram.summary());
+        }
+    }
+}
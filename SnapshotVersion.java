@@ -0,0 +1,49 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version stamp for lock-free farm snapshots, seqlock style.
+ * The enclosure and each field have their own, so writers on different
+ * monitors never touch the same counters. Every change to snapshotted
+ * state is made between beginWrite and endWrite, under the owner's
+ * monitor. One write may call another (a reserved stock calls a plain
+ * one), which is why begun and finished writes are counted separately
+ * rather than with a single odd/even sequence.
+ *
+ * A reader takes a stable version, reads the state (which must be
+ * volatile), and keeps the result only if validate says no write started
+ * in the meantime. Farm.snapshot does this across all the versions at
+ * once. Writers never wait for readers.
+ */
+public class SnapshotVersion {
+    private final AtomicLong begun = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+
+    public void beginWrite() {
+        begun.incrementAndGet();
+    }
+
+    public void endWrite() {
+        finished.incrementAndGet();
+    }
+
+    /**
+     * Gets the current version if no write is in progress.
+     *
+     * @return Number of writes so far, or -1 if a write is in progress
+     */
+    public long stableVersion() {
+        long started = begun.get();
+        // Every write that had started must also have finished
+        return finished.get() == started ? started : -1;
+    }
+
+    /**
+     * Checks that no write started since the version was taken.
+     *
+     * @param version Version from stableVersion
+     * @return True if the state read since is consistent
+     */
+    public boolean validate(long version) {
+        return begun.get() == version;
+    }
+}
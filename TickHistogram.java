@@ -0,0 +1,97 @@
+/**
+ * Compact histogram of tick durations.
+ * Values below 16 are counted exactly; larger values fall into 8 sub-buckets
+ * per power of two, so percentiles are accurate to within 12.5% while the
+ * whole histogram is a few hundred longs regardless of how many values it holds.
+ * Monitor pattern - all methods synchronise on the histogram.
+ */
+public class TickHistogram {
+    private static final int EXACT = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+
+    @GuardedBy("this")
+    private final long[] buckets = new long[EXACT + (63 - 4) * SUB_BUCKETS];
+    @GuardedBy("this")
+    private long count = 0;
+    @GuardedBy("this")
+    private long sum = 0;
+    @GuardedBy("this")
+    private long max = 0;
+
+    /**
+     * Records a duration.
+     *
+     * @param ticks duration in ticks, negative values are ignored
+     */
+    public synchronized void record(long ticks) {
+        if (ticks < 0) {
+            return;
+        }
+        buckets[bucketOf(ticks)]++;
+        count++;
+        sum += ticks;
+        max = Math.max(max, ticks);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    /**
+     * Gets an approximate percentile.
+     *
+     * @param percent percentile between 0 and 100
+     * @return lower bound of the bucket holding the percentile, 0 if empty
+     */
+    public synchronized long percentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Formats count, mean and the usual percentiles on one line.
+     *
+     * @return summary text
+     */
+    public synchronized String summary() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+                count, mean(), percentile(50), percentile(90), percentile(99), max);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 4
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+        int sub = (bucket - EXACT) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+    }
+}
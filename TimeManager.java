@@ -1,3 +1,5 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Coorindate the passage of time in a simulation.
  * Implements a monitor pattern for synchronised time access.
@@ -5,9 +7,10 @@
  */
 public class TimeManager implements Runnable {
     @GuardedBy("this")
-    private long currentTick = 0; // Protected by intrinsic lock
+    private volatile long currentTick = 0; // Written under intrinsic lock, volatile for peekCurrentTick
     
     private final int tickTimeMs;
+    private final int maxTickTimeMs; // ticks last a random time in [tickTimeMs, maxTickTimeMs]
     
     // Volatile to ensure visibility across threads without full synchronisations
     private volatile boolean running = true;
@@ -18,7 +21,19 @@ public class TimeManager implements Runnable {
      * @param tickTimeMs Duration of each tick in milliseconds
      */
     public TimeManager(int tickTimeMs) {
-        this.tickTimeMs = tickTimeMs;
+        this(tickTimeMs, tickTimeMs);
+    }
+    
+    /**
+     * Creates a time manager whose ticks vary randomly in length.
+     * Used to shake out timing assumptions under stress.
+     * 
+     * @param minTickTimeMs Shortest tick in milliseconds
+     * @param maxTickTimeMs Longest tick in milliseconds
+     */
+    public TimeManager(int minTickTimeMs, int maxTickTimeMs) {
+        this.tickTimeMs = minTickTimeMs;
+        this.maxTickTimeMs = Math.max(minTickTimeMs, maxTickTimeMs);
     }
     
     @Override
@@ -26,7 +41,8 @@ public class TimeManager implements Runnable {
         while (running) {
             try {
                 // Sleep to simulate the passage of time
-                Thread.sleep(tickTimeMs);
+                Thread.sleep(maxTickTimeMs == tickTimeMs ? tickTimeMs
+                        : ThreadLocalRandom.current().nextInt(tickTimeMs, maxTickTimeMs + 1));
                 incrementTick();
             } catch (InterruptedException e) {
                 // Preserve interrupt status for proper shutdown
@@ -55,6 +71,17 @@ public class TimeManager implements Runnable {
     public synchronized long getCurrentTick() {
         return currentTick;
     }
+
+    /**
+     * Gets the current tick without taking the monitor, for observers such
+     * as the Watchdog that must keep running while a thread is stuck
+     * holding it. Never behind a tick already published by incrementTick.
+     * 
+     * @return Current tick
+     */
+    public long peekCurrentTick() {
+        return currentTick;
+    }
     
     /**
      * Waits until the specified number of ticks have passed.
@@ -67,8 +94,17 @@ public class TimeManager implements Runnable {
     public synchronized void waitTicks(long ticks) throws InterruptedException {
         if (ticks <= 0) return;
         
-        long targetTick = currentTick + ticks;
-        
+        waitUntil(currentTick + ticks);
+    }
+    
+    /**
+     * Waits until the clock reaches the given tick.
+     * Returns immediately if it already has.
+     * 
+     * @param targetTick Tick to wait for
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    public synchronized void waitUntil(long targetTick) throws InterruptedException {
         while (currentTick < targetTick) {
             if (!running) throw new InterruptedException("Time manager stopped");
             wait(); // Release lock and wait until notified
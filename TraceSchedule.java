@@ -0,0 +1,116 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays deliveries recorded in a trace file, one per line:
+ *   tick animals              - that many animals of random types
+ *   tick name=count ...       - exactly those animals, e.g. "250 pig=3 cow=1"
+ * Ticks are counted from when the producer starts and must not decrease.
+ * Blank lines and lines starting with '#' are ignored. The schedule ends
+ * after the last line. Every producer given the trace replays all of it.
+ */
+public class TraceSchedule extends DeliverySchedule {
+    private final long[] ticks;
+    private final int[][] deliveries; // per line: {animals} or {type, count, type, count, ...}
+    private final Random random;
+    private int next = 0;
+    private long startTick = -1;
+
+    private TraceSchedule(long[] ticks, int[][] deliveries, Random random) {
+        this.ticks = ticks;
+        this.deliveries = deliveries;
+        this.random = random;
+    }
+
+    /**
+     * Loads a trace. Must be called after the animal catalogue has been loaded.
+     *
+     * @param filename Path of the trace file
+     * @param random   Source of randomness for lines without types
+     * @return The schedule
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed
+     */
+    public static TraceSchedule load(String filename, Random random) throws IOException {
+        Map<String, Integer> typeIds = new HashMap<>();
+        for (AnimalType type : AnimalType.values()) {
+            typeIds.put(type.getName(), type.getId());
+        }
+
+        List<Long> ticks = new ArrayList<>();
+        List<int[]> deliveries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                try {
+                    long tick = Long.parseLong(parts[0]);
+                    if (tick < 0 || (!ticks.isEmpty() && tick < ticks.get(ticks.size() - 1))) {
+                        throw new IllegalArgumentException(filename + ":" + lineNumber
+                                + ": ticks must be non-negative and must not decrease");
+                    }
+                    int[] delivery;
+                    if (parts.length == 2 && parts[1].indexOf('=') < 0) {
+                        delivery = new int[] { Integer.parseInt(parts[1]) };
+                    } else {
+                        delivery = new int[(parts.length - 1) * 2];
+                        for (int i = 1; i < parts.length; i++) {
+                            int split = parts[i].indexOf('=');
+                            Integer typeId = split > 0 ? typeIds.get(parts[i].substring(0, split)) : null;
+                            if (typeId == null) {
+                                throw new IllegalArgumentException(filename + ":" + lineNumber
+                                        + ": unknown animal type in " + parts[i]);
+                            }
+                            delivery[(i - 1) * 2] = typeId;
+                            delivery[(i - 1) * 2 + 1] = Integer.parseInt(parts[i].substring(split + 1));
+                        }
+                    }
+                    ticks.add(tick);
+                    deliveries.add(delivery);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(filename + ":" + lineNumber + ": expected 'tick animals' or "
+                            + "'tick name=count ...'");
+                }
+            }
+        }
+
+        long[] tickArray = new long[ticks.size()];
+        for (int i = 0; i < tickArray.length; i++) {
+            tickArray[i] = ticks.get(i);
+        }
+        return new TraceSchedule(tickArray, deliveries.toArray(new int[0][]), random);
+    }
+
+    @Override
+    public long next(long previousTick, AnimalBatch delivery) {
+        if (startTick < 0) {
+            startTick = previousTick;
+        }
+        if (next == ticks.length) {
+            return -1;
+        }
+        int[] line = deliveries[next];
+        if (line.length == 1) {
+            randomAnimals(delivery, line[0], random);
+        } else {
+            delivery.clear();
+            for (int i = 0; i < line.length; i += 2) {
+                delivery.add(line[i], line[i + 1]);
+            }
+        }
+        return startTick + ticks[next++];
+    }
+}
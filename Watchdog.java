@@ -0,0 +1,325 @@
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches for starved buyers, stuck farmers and long stocking holds.
+ * Polls the progress every Farmer and Buyer publishes, and how long each
+ * field's stocking flag has been held. When a threshold is exceeded it
+ * prints a diagnosis to System.err: what is stuck, the state of the field
+ * involved, and the stacks of the threads involved with the monitors they
+ * hold and wait on.
+ *
+ * Each problem is reported once when it appears, and again only if it
+ * clears and comes back. Runs on its own daemon thread and never takes a
+ * simulation monitor - it reads the clock with peekCurrentTick, scans for
+ * deadlocks, then reads the actors' volatile fields, the fields' lock-free
+ * getters and a lock-free farm snapshot - so a thread stuck holding a
+ * monitor, the clock's included, cannot hang it too. If
+ * the snapshot cannot be taken, the checks that need it are skipped and
+ * diagnoses say the field state is unavailable.
+ */
+public class Watchdog implements Runnable {
+    private static final int MAX_STACK_DEPTH = 16;
+
+    private final Farm farm;
+    private final TimeManager timeManager;
+    private final List<Farmer> farmers;
+    private final List<Buyer> buyers;
+    private final long buyerWaitTicks;
+    private final long farmerStallTicks;
+    private final long stockingHoldTicks;
+    private final long pollMs;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    // Only touched by the watchdog thread
+    private final long[] stockingSession; // hold last seen per field, 0 if none
+    private final long[] stockingSinceTick; // tick that hold was first seen
+    private final FarmSnapshot snapshot;
+    private long enclosureBusySinceTick = -1; // first check of the current run of non-empty ones, -1 if empty
+    private Set<String> reported = new HashSet<>(); // problems that are still active
+
+    // Read by the stress harness
+    private volatile long diagnoses = 0;
+
+    /**
+     * Creates a watchdog.
+     *
+     * @param farm              The farm to watch
+     * @param timeManager       Shared time manager
+     * @param farmers           Every farmer in the simulation, may be a FarmerPool's live list
+     * @param buyers            Every buyer in the simulation
+     * @param buyerWaitTicks    Ticks a buyer may wait on its field
+     * @param farmerStallTicks  Ticks a farmer may go without moving an animal
+     * @param stockingHoldTicks Ticks a field's stocking flag may be held
+     * @param pollMs            Milliseconds between checks
+     */
+    public Watchdog(Farm farm, TimeManager timeManager, List<Farmer> farmers, List<Buyer> buyers,
+            long buyerWaitTicks, long farmerStallTicks, long stockingHoldTicks, long pollMs) {
+        this.farm = farm;
+        this.timeManager = timeManager;
+        this.farmers = farmers; // not copied, so farmers a pool adds later are watched too
+        this.buyers = new ArrayList<>(buyers);
+        this.buyerWaitTicks = buyerWaitTicks;
+        this.farmerStallTicks = farmerStallTicks;
+        this.stockingHoldTicks = stockingHoldTicks;
+        this.pollMs = pollMs;
+        this.stockingSession = new long[farm.getFieldCount()];
+        this.stockingSinceTick = new long[farm.getFieldCount()];
+        this.snapshot = new FarmSnapshot(farm.getFieldCount());
+    }
+
+    /**
+     * Gets the number of diagnoses printed so far.
+     *
+     * @return Diagnosis count
+     */
+    public long getDiagnosisCount() {
+        return diagnoses;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(pollMs);
+                check();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs every check once and prints a diagnosis for new problems.
+     */
+    public void check() {
+        long now = timeManager.peekCurrentTick();
+        Map<String, String> problems = new LinkedHashMap<>(); // key -> description
+        Set<Thread> involved = new LinkedHashSet<>();
+
+        // Threads blocked on each other's monitors
+        long[] deadlocked = threads.findMonitorDeadlockedThreads();
+        if (deadlocked != null) {
+            StringBuilder names = new StringBuilder();
+            for (ThreadInfo info : threads.getThreadInfo(deadlocked)) {
+                if (info != null) {
+                    names.append(names.length() > 0 ? ", " : "").append(info.getThreadName());
+                }
+            }
+            problems.put("deadlock:" + names, "monitor deadlock between " + names);
+        }
+
+        // Without locks - a deadlocked writer may never finish its snapshot write
+        boolean haveSnapshot = farm.trySnapshot(snapshot);
+
+        // Stocking flags held too long - e.g. held across the whole trip
+        for (int i = 0; i < stockingSession.length; i++) {
+            long session = farm.getField(i).getStockingSession();
+            if (session != stockingSession[i]) {
+                stockingSession[i] = session;
+                stockingSinceTick[i] = now;
+            } else if (session != 0 && now - stockingSinceTick[i] >= stockingHoldTicks) {
+                Farmer holder = stockingHolder(i);
+                problems.put("hold:" + i + ":" + session, "field " + farm.getField(i) + " stocking flag held for "
+                        + (now - stockingSinceTick[i]) + " ticks by " + describe(holder, now));
+                addThread(involved, holder == null ? null : holder.getThread());
+            }
+        }
+
+        // Buyers starved on their field
+        for (Buyer buyer : buyers) {
+            long since = buyer.getWaitingSinceTick();
+            if (since < 0 || now - since < buyerWaitTicks) {
+                continue;
+            }
+            int typeId = buyer.getPreferredType().getId();
+            Field field = farm.getField(typeId);
+            Farmer holder = stockingHolder(typeId);
+            String state = haveSnapshot
+                    ? "field holds " + snapshot.getFieldAnimalCount(typeId) + "/" + field.getCapacity() + ", "
+                            + snapshot.getFieldWaitingBuyers(typeId) + " buyers waiting, enclosure holds "
+                            + snapshot.getEnclosureSize()
+                    : "field state unavailable";
+            problems.put("buyer:" + buyer.getId() + ":" + since, "buyer=" + buyer.getId() + " waiting on field "
+                    + field + " for " + (now - since) + " ticks (" + state + ", stocking flag "
+                    + (holder != null ? "held by " + describe(holder, now) : "free") + ")");
+            addThread(involved, buyer.getThread());
+            addThread(involved, holder == null ? null : holder.getThread());
+        }
+
+        // One look at the enclosure may land just after a delivery, so an idle
+        // farmer only counts as stuck once the enclosure has held animals at
+        // every check for as long as a farmer may stall. Unknown state keeps
+        // the current run going.
+        if (haveSnapshot) {
+            if (snapshot.getEnclosureSize() == 0) {
+                enclosureBusySinceTick = -1;
+            } else if (enclosureBusySinceTick < 0) {
+                enclosureBusySinceTick = now;
+            }
+        }
+        boolean enclosureBusy = enclosureBusySinceTick >= 0 && now - enclosureBusySinceTick >= farmerStallTicks;
+
+        // Farmers that have not moved an animal for too long. Waiting for
+        // animals or resting is idle, not stuck, unless there was work all along.
+        int onBreak = 0;
+        int running = 0;
+        for (Farmer farmer : farmers) {
+            String activity = farmer.getActivity();
+            if (activity.equals("retired")) {
+                continue;
+            }
+            running++;
+            if (activity.equals("on_break")) {
+                onBreak++;
+            }
+            boolean waiting = activity.equals("waiting_for_animals");
+            // A waiting farmer's clock restarts whenever it wakes to an empty enclosure
+            long stalledFor = now - (waiting ? Math.max(farmer.getLastProgressTick(), farmer.getActivitySinceTick())
+                    : farmer.getLastProgressTick());
+            if (stalledFor < farmerStallTicks || ((waiting || activity.equals("on_break")) && !enclosureBusy)) {
+                continue;
+            }
+            problems.put("farmer:" + farmer.getId() + ":" + farmer.getLastProgressTick(), describe(farmer, now)
+                    + " has moved no animals for " + stalledFor + " ticks");
+            addThread(involved, farmer.getThread());
+        }
+
+        // Every farmer resting while there is work to do
+        if (haveSnapshot && running > 0 && onBreak == running) {
+            int waitingBuyers = 0;
+            for (int i = 0; i < snapshot.getFieldCount(); i++) {
+                waitingBuyers += snapshot.getFieldWaitingBuyers(i);
+            }
+            if (waitingBuyers > 0 || snapshot.getEnclosureSize() > 0) {
+                problems.put("all_on_break", "all " + running + " farmers are on break with "
+                        + waitingBuyers + " buyers waiting and " + snapshot.getEnclosureSize()
+                        + " animals in the enclosure");
+            }
+        }
+
+        List<String> fresh = new ArrayList<>();
+        for (Map.Entry<String, String> problem : problems.entrySet()) {
+            if (!reported.contains(problem.getKey())) {
+                fresh.add(problem.getValue());
+            }
+        }
+        reported = new HashSet<>(problems.keySet()); // cleared problems can be reported again
+        if (!fresh.isEmpty()) {
+            diagnoses++;
+            System.err.print(diagnosis(now, fresh, involved, deadlocked));
+        }
+    }
+
+    /**
+     * Finds the farmer holding a field's stocking flag, if any.
+     */
+    private Farmer stockingHolder(int typeId) {
+        for (Farmer farmer : farmers) {
+            if (farmer.getCurrentFieldTypeId() == typeId && !farmer.getActivity().equals("waiting_for_field")) {
+                return farmer;
+            }
+        }
+        return null;
+    }
+
+    private static String describe(Farmer farmer, long now) {
+        if (farmer == null) {
+            return "an unknown farmer";
+        }
+        return "farmer=" + farmer.getId() + " (" + farmer.getActivity() + " for "
+                + (now - farmer.getActivitySinceTick()) + " ticks)";
+    }
+
+    private static void addThread(Set<Thread> involved, Thread thread) {
+        if (thread != null) {
+            involved.add(thread);
+        }
+    }
+
+    /**
+     * Builds the diagnosis text, with stacks from ThreadMXBean.
+     */
+    private String diagnosis(long now, List<String> problems, Set<Thread> involved, long[] deadlocked) {
+        StringBuilder out = new StringBuilder();
+        out.append("WATCHDOG tick=").append(now).append('\n');
+        for (String problem : problems) {
+            out.append("- ").append(problem).append('\n');
+        }
+
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Thread thread : involved) {
+            ids.add(thread.threadId());
+        }
+        if (deadlocked != null) {
+            for (long id : deadlocked) {
+                ids.add(id);
+            }
+        }
+        long[] idArray = new long[ids.size()];
+        int n = 0;
+        for (long id : ids) {
+            idArray[n++] = id;
+        }
+        for (ThreadInfo info : threads.getThreadInfo(idArray, true, false)) {
+            if (info != null) {
+                appendThread(out, info);
+            }
+        }
+        return out.toString();
+    }
+
+    private void appendThread(StringBuilder out, ThreadInfo info) {
+        out.append("  \"").append(info.getThreadName()).append("\" ").append(info.getThreadState());
+        if (info.getLockInfo() != null) {
+            out.append(" on ").append(monitorName(info.getLockInfo()));
+            if (info.getLockOwnerName() != null) {
+                out.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+            }
+        }
+        out.append('\n');
+
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] locked = info.getLockedMonitors();
+        for (int depth = 0; depth < stack.length && depth < MAX_STACK_DEPTH; depth++) {
+            out.append("      at ").append(stack[depth]).append('\n');
+            for (MonitorInfo monitor : locked) {
+                if (monitor.getLockedStackDepth() == depth) {
+                    out.append("      - holds ").append(monitorName(monitor)).append('\n');
+                }
+            }
+        }
+        if (stack.length > MAX_STACK_DEPTH) {
+            out.append("      ...\n");
+        }
+    }
+
+    /**
+     * Names a monitor after the simulation object it belongs to.
+     */
+    private String monitorName(LockInfo lock) {
+        int hash = lock.getIdentityHashCode();
+        if (hash == System.identityHashCode(farm)) {
+            return "Farm monitor";
+        }
+        if (hash == System.identityHashCode(timeManager)) {
+            return "TimeManager monitor";
+        }
+        for (int i = 0; i < farm.getFieldCount(); i++) {
+            if (hash == System.identityHashCode(farm.getField(i))) {
+                return "Field[" + farm.getField(i) + "] monitor";
+            }
+        }
+        return lock.toString();
+    }
+}